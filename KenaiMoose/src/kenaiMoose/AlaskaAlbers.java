@@ -0,0 +1,108 @@
+package kenaiMoose;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class AlaskaAlbers {
+
+	/* Albers equal-area conic projection on the ellipsoid, evaluated in closed form on primitive doubles
+	 * 		EPSG_3338 - Alaska Albers (NAD83 / GRS80, standard parallels 55N and 65N, origin 50N 154W)
+	 *
+	 * Used by the planar simulation mode to convert between the NAD83 Geography and metres without going
+	 * through GeoTools MathTransforms. Formulas from Snyder (1987) "Map Projections - A Working Manual",
+	 * the inverse uses the authalic latitude series so neither direction iterates.
+	 */
+
+	public static final AlaskaAlbers EPSG_3338 = new AlaskaAlbers(6378137.0, 1 / 298.257222101, 55, 65, 50, -154);
+
+	private final double a;
+	private final double e;
+	private final double e2;
+	private final double n;
+	private final double c;
+	private final double rho0;
+	private final double lon0;
+	private final double qp; // q at the pole, for the authalic latitude
+	private final double series1; // coefficients of the authalic to geodetic latitude series
+	private final double series2;
+	private final double series3;
+
+	// a - semi-major axis in metres, f - flattening, lat1/lat2 - standard parallels, lat0/lon0 - origin (degrees)
+	public AlaskaAlbers(double a, double f, double lat1, double lat2, double lat0, double lon0) {
+		this.a = a;
+		e2 = 2 * f - f * f;
+		e = Math.sqrt(e2);
+		this.lon0 = Math.toRadians(lon0);
+		double m1 = m(Math.toRadians(lat1));
+		double m2 = m(Math.toRadians(lat2));
+		double q1 = q(Math.toRadians(lat1));
+		double q2 = q(Math.toRadians(lat2));
+		n = (m1 * m1 - m2 * m2) / (q2 - q1);
+		c = m1 * m1 + n * q1;
+		rho0 = a * Math.sqrt(c - n * q(Math.toRadians(lat0))) / n;
+		qp = q(Math.PI / 2);
+		double e4 = e2 * e2;
+		double e6 = e4 * e2;
+		series1 = e2 / 3 + 31 * e4 / 180 + 517 * e6 / 5040;
+		series2 = 23 * e4 / 360 + 251 * e6 / 3780;
+		series3 = 761 * e6 / 45360;
+	}
+
+	private double m(double lat) {
+		double sin = Math.sin(lat);
+		return Math.cos(lat) / Math.sqrt(1 - e2 * sin * sin);
+	}
+
+	private double q(double lat) {
+		double sin = Math.sin(lat);
+		return (1 - e2) * (sin / (1 - e2 * sin * sin) - (1 / (2 * e)) * Math.log((1 - e * sin) / (1 + e * sin)));
+	}
+
+	// NAD83 longitude/latitude in degrees to projected x/y in metres, written to out[0] and out[1]
+	public void project(double lon, double lat, double[] out) {
+		double rho = a * Math.sqrt(c - n * q(Math.toRadians(lat))) / n;
+		double theta = n * (Math.toRadians(lon) - lon0);
+		out[0] = rho * Math.sin(theta);
+		out[1] = rho0 - rho * Math.cos(theta);
+	}
+
+	// projected x/y in metres to NAD83 longitude/latitude in degrees, written to out[0] and out[1]
+	public void unproject(double x, double y, double[] out) {
+		double dy = rho0 - y;
+		double rho = Math.sqrt(x * x + dy * dy);
+		double theta = Math.atan2(x, dy);
+		double q = (c - rho * rho * n * n / (a * a)) / n;
+		double beta = Math.asin(Math.max(-1, Math.min(1, q / qp)));
+		double lat = beta + series1 * Math.sin(2 * beta) + series2 * Math.sin(4 * beta) + series3 * Math.sin(6 * beta);
+		out[0] = Math.toDegrees(lon0 + theta / n);
+		out[1] = Math.toDegrees(lat);
+	}
+
+	// convenience for display and output, allocates the returned Coordinate
+	public Coordinate toCoordinate(double x, double y) {
+		double[] lonlat = new double[2];
+		unproject(x, y, lonlat);
+		return new Coordinate(lonlat[0], lonlat[1]);
+	}
+
+	// projected bounds of a longitude/latitude envelope, sampling its edges since parallels project to arcs
+	public Envelope project(Envelope lonlat) {
+		Envelope projected = new Envelope();
+		double[] xy = new double[2];
+		int samples = 16;
+		for (int i = 0; i <= samples; i++) {
+			double lon = lonlat.getMinX() + lonlat.getWidth() * i / samples;
+			double lat = lonlat.getMinY() + lonlat.getHeight() * i / samples;
+			project(lon, lonlat.getMinY(), xy);
+			projected.expandToInclude(xy[0], xy[1]);
+			project(lon, lonlat.getMaxY(), xy);
+			projected.expandToInclude(xy[0], xy[1]);
+			project(lonlat.getMinX(), lat, xy);
+			projected.expandToInclude(xy[0], xy[1]);
+			project(lonlat.getMaxX(), lat, xy);
+			projected.expandToInclude(xy[0], xy[1]);
+		}
+		return projected;
+	}
+
+}
@@ -0,0 +1,168 @@
+package kenaiMoose;
+
+public class BarrierField {
+
+	/* Signed distance in metres from each LandscapeMask cell to the nearest barrier, for Moose reflection
+	 * 		distance - row-major per cell: distance to the nearest barrier cell on land, minus the distance to
+	 * 		           the nearest land cell inside a barrier, measured between cell centers
+	 * 		transform - the mask's grid
+	 * 		margin - cell diagonal in metres, how far distance() may overstate the clearance of a point
+	 *
+	 * A barrier is any cell that isn't LandscapeMask.LAND, so water and everything outside the boundary.
+	 * Computed once with an exact separable Euclidean distance transform (Felzenszwalb and Huttenlocher
+	 * 2012), columns first at a fixed cell height then each row at its own cell width. A walk can step
+	 * distance() - margin() in any direction without sampling the mask in between. LandscapeCache stores the
+	 * field, so runs started from the cache don't compute it again.
+	 */
+
+	private final float[] distance;
+	private final GridTransform transform;
+	private final double margin;
+	private final double min_spacing;
+
+	// a field read back from a LandscapeCache
+	BarrierField(float[] distance, GridTransform transform, double margin, double min_spacing) {
+		this.distance = distance;
+		this.transform = transform;
+		this.margin = margin;
+		this.min_spacing = min_spacing;
+	}
+
+	// the field for a mask held in the heap, null for a tiled mask since the field would be as large again
+	public static BarrierField fromMask(LandscapeMask mask) {
+		if (mask.getTiles() != null)
+			return null;
+		GridTransform transform = mask.getTransform();
+		int cols = transform.getCols();
+		int rows = transform.getRows();
+
+		// metres per degree on the GRS80 ellipsoid at each row's latitude
+		double a = 6378137.0;
+		double e2 = 0.00669438002290;
+		double mid_sin = Math.sin(Math.toRadians(transform.center_y(rows / 2)));
+		double cell_height_m = Math.toRadians(transform.cell_height) * a * (1 - e2)
+				/ Math.pow(1 - e2 * mid_sin * mid_sin, 1.5);
+		double[] cell_width_m = new double[rows];
+		for (int row = 0; row < rows; row++) {
+			double lat = Math.toRadians(transform.center_y(row));
+			double sin = Math.sin(lat);
+			cell_width_m[row] = Math.toRadians(transform.cell_width) * a * Math.cos(lat) / Math.sqrt(1 - e2 * sin * sin);
+		}
+
+		boolean[] barrier = new boolean[cols * rows];
+		for (int index = 0; index < barrier.length; index++)
+			barrier[index] = mask.get(index) != LandscapeMask.LAND;
+		float[] to_barrier = squared_distance(barrier, true, cols, rows, cell_height_m, cell_width_m);
+		float[] to_land = squared_distance(barrier, false, cols, rows, cell_height_m, cell_width_m);
+		float[] distance = new float[cols * rows];
+		for (int index = 0; index < distance.length; index++)
+			distance[index] = (float) (barrier[index] ? -Math.min(Math.sqrt(to_land[index]), Float.MAX_VALUE)
+					: Math.min(Math.sqrt(to_barrier[index]), Float.MAX_VALUE));
+
+		double max_width = 0;
+		double min_width = Double.MAX_VALUE;
+		for (double width : cell_width_m) {
+			max_width = Math.max(max_width, width);
+			min_width = Math.min(min_width, width);
+		}
+		// a point is anywhere in its cell and the barrier starts at the near edge of its cell
+		double margin = Math.sqrt(max_width * max_width + cell_height_m * cell_height_m);
+		return new BarrierField(distance, transform, margin, Math.min(min_width, cell_height_m));
+	}
+
+	// squared distance in metres from every cell to the nearest cell where barrier[index] == target
+	private static float[] squared_distance(boolean[] barrier, boolean target, int cols, int rows,
+			double cell_height_m, double[] cell_width_m) {
+		int n = Math.max(cols, rows);
+		double[] f = new double[n];
+		double[] d = new double[n];
+		int[] v = new int[n];
+		double[] z = new double[n + 1];
+		float[] result = new float[cols * rows];
+
+		for (int col = 0; col < cols; col++) {
+			for (int row = 0; row < rows; row++)
+				f[row] = barrier[row * cols + col] == target ? 0 : Double.POSITIVE_INFINITY;
+			transform_1d(f, rows, cell_height_m, d, v, z);
+			for (int row = 0; row < rows; row++)
+				result[row * cols + col] = (float) d[row];
+		}
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++)
+				f[col] = result[row * cols + col];
+			transform_1d(f, cols, cell_width_m[row], d, v, z);
+			for (int col = 0; col < cols; col++)
+				result[row * cols + col] = (float) d[col];
+		}
+		return result;
+	}
+
+	// 1D squared distance transform of f sampled every spacing metres, the lower envelope of parabolas
+	private static void transform_1d(double[] f, int n, double spacing, double[] d, int[] v, double[] z) {
+		double s2 = spacing * spacing;
+		int k = -1;
+		for (int q = 0; q < n; q++) {
+			if (f[q] == Double.POSITIVE_INFINITY)
+				continue;
+			double s = Double.NEGATIVE_INFINITY;
+			while (k >= 0) {
+				int p = v[k];
+				s = ((f[q] + s2 * q * q) - (f[p] + s2 * p * p)) / (2 * s2 * (q - p));
+				if (s > z[k])
+					break;
+				k--;
+			}
+			k++;
+			v[k] = q;
+			z[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+			z[k + 1] = Double.POSITIVE_INFINITY;
+		}
+		if (k < 0) {
+			for (int q = 0; q < n; q++)
+				d[q] = Double.POSITIVE_INFINITY;
+			return;
+		}
+		int j = 0;
+		for (int q = 0; q < n; q++) {
+			while (z[j + 1] < q)
+				j++;
+			double offset = q - v[j];
+			d[q] = s2 * offset * offset + f[v[j]];
+		}
+	}
+
+	// signed distance at a NAD83 coordinate, bilinear between cell centers and clamped to the grid edge
+	public double distance(double lon, double lat) {
+		double gx = (lon - transform.origin_x) / transform.cell_width - 0.5;
+		double gy = (transform.origin_y - lat) / transform.cell_height - 0.5;
+		int cols = transform.getCols();
+		int rows = transform.getRows();
+		gx = Math.max(0, Math.min(cols - 1, gx));
+		gy = Math.max(0, Math.min(rows - 1, gy));
+		int col = Math.min((int) gx, Math.max(0, cols - 2));
+		int row = Math.min((int) gy, Math.max(0, rows - 2));
+		int col1 = Math.min(col + 1, cols - 1);
+		int row1 = Math.min(row + 1, rows - 1);
+		double fx = gx - col;
+		double fy = gy - row;
+		double top = distance[row * cols + col] * (1 - fx) + distance[row * cols + col1] * fx;
+		double bottom = distance[row1 * cols + col] * (1 - fx) + distance[row1 * cols + col1] * fx;
+		return top * (1 - fy) + bottom * fy;
+	}
+
+	// backing array, for LandscapeCache to write out - not to be modified
+	public float[] getDistances() {
+		return distance;
+	}
+
+	// distance by which distance() may overstate the clearance of a point inside a cell
+	public double margin() {
+		return margin;
+	}
+
+	// smallest cell side in metres, a step no longer than this can't cross a barrier cell unseen
+	public double min_spacing() {
+		return min_spacing;
+	}
+
+}
@@ -0,0 +1,46 @@
+package kenaiMoose;
+
+import java.util.SplittableRandom;
+
+public class Binomial {
+
+	/* Exact binomial draws for applying a per-individual probability to a whole group at once
+	 *
+	 * Small means use inversion (sequential search of the CDF), larger groups are split in half since the
+	 * sum of two binomials with the same p is binomial, so the result matches n independent trials.
+	 */
+
+	private static final double INVERSION_MEAN = 20;
+
+	// number of successes in n independent trials each with probability p, drawn from the caller's stream
+	public static int draw(int n, double p, SplittableRandom random) {
+		if (n <= 0 || p <= 0)
+			return 0;
+		if (p >= 1)
+			return n;
+		if (p > 0.5)
+			return n - draw(n, 1 - p, random);
+		if (n * p > INVERSION_MEAN) {
+			int half = n / 2;
+			return draw(half, p, random) + draw(n - half, p, random);
+		}
+		return inversion(n, p, random);
+	}
+
+	// inversion for n * p <= INVERSION_MEAN and p <= 0.5, where (1 - p)^n cannot underflow
+	private static int inversion(int n, double p, SplittableRandom random) {
+		double q = 1 - p;
+		double s = p / q;
+		double a = (n + 1) * s;
+		double r = Math.pow(q, n);
+		double u = random.nextDouble();
+		int x = 0;
+		while (u > r && x < n) {
+			u -= r;
+			x++;
+			r *= (a / x - s);
+		}
+		return x;
+	}
+
+}
@@ -1,32 +1,14 @@
 package kenaiMoose;
 
-import java.io.File;
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
 
 import org.apache.poi.ss.formula.functions.T;
-import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.io.AbstractGridFormat;
-import org.geotools.coverage.grid.io.GridCoverage2DReader;
-import org.geotools.coverage.grid.io.GridFormatFinder;
-import org.geotools.data.shapefile.ShapefileDataStore;
-import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.geometry.DirectPosition2D;
-import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.geometry.DirectPosition;
-import org.opengis.geometry.MismatchedDimensionException;
-import org.opengis.referencing.FactoryException;
-import org.opengis.referencing.NoSuchAuthorityCodeException;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.MathTransform;
-import org.opengis.referencing.operation.TransformException;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.MultiPolygon;
@@ -38,8 +20,8 @@ import repast.simphony.context.space.gis.GeographyFactoryFinder;
 import repast.simphony.context.space.graph.NetworkBuilder;
 import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.essentials.RepastEssentials;
-import repast.simphony.gis.util.GeometryUtil;
 import repast.simphony.parameter.Parameters;
+import repast.simphony.random.RandomHelper;
 import repast.simphony.space.gis.Geography;
 import repast.simphony.space.gis.GeographyParameters;
 import repast.simphony.space.graph.Network;
@@ -53,91 +35,121 @@ public class ContextBuilder implements repast.simphony.dataLoader.ContextBuilder
 		RunEnvironment.getInstance().getCurrentSchedule().getTickCount(); // use to get run's current tick count
 		RepastEssentials.GetTickCount(); // another method of getting tick count
 		Parameters params = RunEnvironment.getInstance().getParameters(); // get RunEnvironment specified params
+		Log.configure(params.getValueAsString("log_level")); // e.g. "INFO" or "INFO,TICK=DEBUG", SweepRunner sets it once for all runs
+		RandomStreams.setSeed(RandomHelper.getSeed()); // per-agent streams follow the randomSeed parameter
+		Host.setDisplay(!RunEnvironment.getInstance().isBatch()); // batch runs have no GIS display to draw InfectionZones
 		// Creating Geography projection for Moose vectors
 		GeographyParameters geoParams = new GeographyParameters();
 		geoParams.setCrs("EPSG:4269"); // Setting NAD83 GCS (GCS of 3338 Alaska Albers PCS)
 		Geography geography = GeographyFactoryFinder.createGeographyFactory(null).createGeography("Kenai", context, geoParams);
 		
-		// Geometry factory
-		GeometryFactory geoFac = new GeometryFactory();
-		
-		// Establishing Kenai boundary area from shapefile
-		String boundaryFile = "./data/KenaiWatershed3D_NAD83.shp";
-		List<SimpleFeature> features = loadFeaturesFromShapefile(boundaryFile);
-		Geometry boundary = (MultiPolygon)features.iterator().next().getDefaultGeometry();
+		// Landscape data is read-only, so a sweep running many parameterizations in one JVM shares a single copy
+		// batch runs don't display the coverages, so they use the preprocessed landscape cache when it's current
+		double habitat_sample = (double)params.getValue("habitat_suitability");
+		Landscape landscape = Landscape.getShared();
+		if (landscape == null && !Host.display)
+			landscape = LandscapeCache.load();
+		if (landscape == null)
+			landscape = Landscape.load(habitat_sample <= 0.0);
+		Geometry boundary = landscape.boundary;
+		LandscapeMask landscape_mask = landscape.mask;
 		
 		// Grabbing relevant parameters for runtime instancing
-		int numMoose = getNumAgents(params, boundary, "large_host_density");
+		int numMoose = getNumAgents(params, landscape, "large_host_density");
 		int numTicks = (Integer) params.getValue("tick_count");
 		String start_lifestage = params.getValueAsString("tick_lifestage");
+		Host.setPlanar((Boolean) params.getValue("planar_coordinates"));
+		Tick.setEggCohorts((Boolean) params.getValue("egg_cohorts"));
 		
-		// placeholders for coverages
-		GridCoverage2D landuse_coverage = null;
-		GridCoverage2D habitat_suitability_coverage = null;
-		GridCoverage2D boundary_coverage = null;
+		// Adding the loaded coverages to the Geography for display
+		if (landscape.landuse_coverage != null)
+			geography.addCoverage("NLCD Landuse", landscape.landuse_coverage);
 		
-		// Load NLCD Landcover Data and add to Geography as a coverage
-	try {
-		landuse_coverage = loadRaster("./data/nlcd_GCS_NAD83.tif", context);
-		geography.addCoverage("NLCD Landuse", landuse_coverage);
-	} catch (IOException e) {
-		System.out.println("Error loading NLCD landcover raster.");
-	}
-		
-		// Setting habitat suitability settings - if value is < 0 we'll load the raster, otherwise use constant value
+		// Setting habitat suitability settings - if value is < 0 we'll use the raster, otherwise use constant value
 		// specified by the parameter sweep
-		double habitat_sample = (double)params.getValue("habitat_suitability");
 		if (habitat_sample > 0.0) {
 			Tick.set_habitat_sample(habitat_sample);
 		}
 		else {
 			Tick.set_habitat_sample(-1);
-			try {
-				habitat_suitability_coverage = loadRaster("./data/brt_prob_map_NAD83.tif", context);
-				geography.addCoverage("Habitat Suitability", habitat_suitability_coverage);
-				Tick.setSuitability(habitat_suitability_coverage);
-			} catch (IOException e) {
-				System.out.println("Error loading habitat suitability raster.");
-			}
+			// a shared or cached landscape has the grid but no coverage to display
+			if (landscape.suitability == null)
+				throw new IllegalStateException("habitat_suitability <= 0 needs the habitat suitability raster, which wasn't loaded.");
+			Tick.setSuitability(landscape.suitability);
+			if (landscape.suitability_coverage != null)
+				geography.addCoverage("Habitat Suitability", landscape.suitability_coverage);
 		}
 		
-	
-		// Loading rasterized geospatial boundary for optimization purposes
-	try {
-		boundary_coverage = loadRaster("./data/KenaNAD83.tif", context);
-		geography.addCoverage("Boundary Raster", boundary_coverage);
+		if (landscape.boundary_coverage != null)
+			geography.addCoverage("Boundary Raster", landscape.boundary_coverage);
 		Host.setBoundary(boundary);
-	} 
-	catch (IOException e) {
-		System.out.println("Error loading boundary raster.");
-	}	
+		Host.setMask(landscape_mask);
+		Host.setBarriers(landscape.barriers);
+		
+		// Agents are placed on land cells picked from a table built once with the landscape, each run draws from
+		// it with its own stream rather than retrying points in the boundary
+		SplittableRandom spawn_random = RandomStreams.stream("ContextBuilder spawn");
+		SpawnSampler land_sampler = landscape.land_sampler();
 		
 		// Create Moose agents
-		System.out.println("Creating " + numMoose + " Moose agents...");
-		List<Coordinate> mooseCoords = GeometryUtil.generateRandomPointsInPolygon(boundary, numMoose);
+		Log.info(Log.SETUP, "Creating " + numMoose + " Moose agents...");
+		List<Coordinate> mooseCoords = land_sampler.sample(numMoose, spawn_random);
 		List<Object> moose = create_agents(mooseCoords.size(), "Moose", context, start_lifestage);
-		move_agents(mooseCoords, moose, geography, landuse_coverage, boundary);
+		move_agents(mooseCoords, moose, geography, landscape_mask, land_sampler, spawn_random);
+		
+		// Hosts are stepped in phases by a single HostScheduler agent
+		HostScheduler host_scheduler = new HostScheduler();
+		context.add(host_scheduler);
+		for (Object host : moose) {
+			host_scheduler.add((Host) host);
+		}
 		
 		// Create Tick agents		
-		// Generating spawn area for beginning Tick population to localize in
-		List<Coordinate> tickSpawn = GeometryUtil.generateRandomPointsInPolygon(boundary, 1);
-		DirectPosition position = new DirectPosition2D(geography.getCRS(), tickSpawn.get(0).x, tickSpawn.get(0).y);
-        int[] sample = (int[]) landuse_coverage.evaluate(position);
-        while (sample[0] == 11 || sample[0] == 12) {
-        	tickSpawn = GeometryUtil.generateRandomPointsInPolygon(boundary, 1);
-        	position = new DirectPosition2D(geography.getCRS(), tickSpawn.get(0).x, tickSpawn.get(0).y);
-        	sample = (int[]) landuse_coverage.evaluate(position);
-        	sample = landuse_coverage.evaluate(position, sample);
-        }
-        // spawn area is sufficient, create a buffer area to spawn ticks in
-		Point spawn_point = geoFac.createPoint(tickSpawn.get(0));
-		Geometry spawn_zone = GeometryUtil.generateBuffer(geography, spawn_point, 500);
-		List<Coordinate> tickCoords = GeometryUtil.generateRandomPointsInPolygon(spawn_zone, numTicks);
-		List<Object> ticks = create_agents(tickCoords.size(), "Tick", context, start_lifestage);
-		move_agents(tickCoords, ticks, geography, landuse_coverage, boundary);
+		// Generating spawn area for beginning Tick population to localize in, optionally favouring suitable habitat
+		SpawnSampler tick_sampler = land_sampler;
+		if ((Boolean) params.getValue("weighted_spawn") && habitat_sample <= 0.0 && landscape.suitability != null)
+			tick_sampler = landscape.suitability_sampler();
+		Coordinate tick_spawn = tick_sampler.sample(spawn_random);
+		// spawn area is on land, spawn ticks within 500 m of it
+		List<Coordinate> tickCoords = points_within(tick_spawn, 500, numTicks, spawn_random);
+		Envelope tick_extent = landscape.tick_extent;
+		if ((Boolean) params.getValue("tick_population")) {
+			// Ticks stored and stepped in bulk by a single TickPopulation agent
+			TickPopulation population = new TickPopulation(tick_extent, 250);
+			context.add(population);
+			Host.setPopulation(population);
+			for (Coordinate coord : tickCoords) {
+				if (landscape_mask.is_water(coord.x, coord.y)) {
+					coord = land_sampler.sample(spawn_random);
+				}
+				population.add(coord.x, coord.y, start_lifestage);
+			}
+			Log.info(Log.SETUP, population.getNumTicks() + " ticks added to TickPopulation.");
+		}
+		else {
+			List<Object> ticks = create_agents(tickCoords.size(), "Tick", context, start_lifestage);
+			move_agents(tickCoords, ticks, geography, landscape_mask, land_sampler, spawn_random);
+			
+			// Indexing the starting Tick population for Host encounter queries
+			TickIndex tick_index = new TickIndex(tick_extent, 250);
+			Tick.setIndex(tick_index);
+			for (Object tick : ticks) {
+				Tick.index_add((Tick) tick, geography.getGeometry(tick).getCoordinate());
+			}
+			
+			// Ticks are stepped and their lifecycle events fired by a single TickScheduler agent
+			// stage lengths are needed up front to schedule the first events
+			IxPacificus.set_lifecycle_lengths();
+			TickScheduler scheduler = new TickScheduler();
+			context.add(scheduler);
+			Tick.setScheduler(scheduler);
+			for (Object tick : ticks) {
+				scheduler.register((Tick) tick, 0);
+			}
+		}
 		
 		// Loading shapefile features for visualization
-		loadFeatures("data/KenaiWatershed3D_NAD83.shp", context, geography);
+		loadFeatures(landscape.features, context, geography);
 		
 		return context;
 	}
@@ -158,7 +170,7 @@ public class ContextBuilder implements repast.simphony.dataLoader.ContextBuilder
 					context.add(new_tick);
 					break;
 				default:
-					System.out.println("Invalid agent requested of create_agents()!");
+					Log.error(Log.SETUP, "Invalid agent requested of create_agents()!");
 					
 			}
 		}
@@ -167,112 +179,60 @@ public class ContextBuilder implements repast.simphony.dataLoader.ContextBuilder
 	
 	// generic shell method for moving the created agents to their appropriate starting locations within the Geography
 	// takes a list of coordinates to attempt to spawn and a list of agents of matching size to be moved to the appropriate coordinates
-	private void move_agents(List<Coordinate> coords, List<Object> agents, Geography geography, GridCoverage2D landuse_coverage, Geometry boundary) {
+	private void move_agents(List<Coordinate> coords, List<Object> agents, Geography geography, LandscapeMask landscape_mask,
+			SpawnSampler land_sampler, SplittableRandom random) {
 		GeometryFactory geoFac = new GeometryFactory();
 		int count = 0;
 		for (Coordinate coord : coords) {
-			DirectPosition pos = new DirectPosition2D(geography.getCRS(), coord.x, coord.y);
-			int[] sample = (int[]) landuse_coverage.evaluate(pos);
-			// checking for inappropriate landuse values and regenerating the point if invalid
-			while (sample[0] == 11 || sample[0] == 12) {
-	        	List<Coordinate> new_coord = GeometryUtil.generateRandomPointsInPolygon(boundary, 1);
-	        	coord = new_coord.get(0);
-        		pos = new DirectPosition2D(geography.getCRS(), coord.x, coord.y);
-        		sample = landuse_coverage.evaluate(pos, sample);
-	        }
+			// checking for inappropriate landuse values and replacing the point with one on land if invalid
+			if (landscape_mask.is_water(coord.x, coord.y)) {
+				coord = land_sampler.sample(random);
+			}
 			Point pnt = geoFac.createPoint(coord);
-			System.out.println("	" + agents.get(count).getClass().getName() + " at: " + coord.toString());
-			System.out.println("		Landuse value: " + sample[0]);
+			if (Log.enabled(Log.SETUP, Log.DEBUG))
+				Log.debug(Log.SETUP, "	" + agents.get(count).getClass().getName() + " at: " + coord.toString());
 			// moving the agent to the specified location
 			geography.move(agents.get(count), pnt);
 			count++;
 			
 		}
-		System.out.println(count + " " + agents.get(0).getClass().getName() + " agents created.");
+		Log.info(Log.SETUP, count + " " + agents.get(0).getClass().getName() + " agents created.");
 	}
 	
-	// Load GeoTiff rasters and convert to a 2DGridCoverage to be returned
-	// NOTE: May work with other filetypes with varying effect
-	//       Rasters must contain appropriate worldfile for proper positioning in geography projection
-	private GridCoverage2D loadRaster(String filename, Context context) throws IOException {
-		File file = new File(filename);
-		AbstractGridFormat format = GridFormatFinder.findFormat(file);
-		GridCoverage2DReader reader = format.getReader(file);
-		
-		// Storing raster data as a GridCoverage2D object, adding it to Context, and returning object
-		if (reader != null) {
-			GridCoverage2D coverage = reader.read(null);
-			context.add(reader);
-			context.add(coverage);
-			return coverage;
-		}
-		else {
-			throw new IOException("No reader.");
+	// uniform random points in a disk of radius metres around a NAD83 coordinate, drawn in EPSG:3338
+	private List<Coordinate> points_within(Coordinate center, double radius, int count, SplittableRandom random) {
+		List<Coordinate> coords = new ArrayList<Coordinate>(count);
+		double[] xy = new double[2];
+		AlaskaAlbers.EPSG_3338.project(center.x, center.y, xy);
+		double center_x = xy[0];
+		double center_y = xy[1];
+		for (int i = 0; i < count; i++) {
+			double r = radius * Math.sqrt(random.nextDouble());
+			double theta = 2 * Math.PI * random.nextDouble();
+			AlaskaAlbers.EPSG_3338.unproject(center_x + r * Math.cos(theta), center_y + r * Math.sin(theta), xy);
+			coords.add(new Coordinate(xy[0], xy[1]));
 		}
-		
-	}
-	
-	// Get features from a shapefile as a List for use in GIS logic
-	// Inputs:
-    //		filename - String representation of shapefile filename
-	// Outputs:
-	// 		List of SimpleFeatures containing each feature found in the shapefile
-	private List<SimpleFeature> loadFeaturesFromShapefile(String filename) {
-		
-		// Establish filepath
-		URL url = null;	
-		try {
-			url = new File(filename).toURL();
-		} catch(MalformedURLException e1) {
-			e1.printStackTrace();
-		}
-		
-		List<SimpleFeature> features = new ArrayList<SimpleFeature>();
-		
-		// Attempt to load shapefile
-		SimpleFeatureIterator featureIter = null;
-		ShapefileDataStore store = null;
-		store = new ShapefileDataStore(url);
-		
-		try {
-			featureIter = store.getFeatureSource().getFeatures().features();
-			
-			while(featureIter.hasNext()) {
-				features.add(featureIter.next());
-			}
-		} catch(IOException e) {
-			e.printStackTrace();
-		}
-		
-		// Tidying up
-		finally {
-			featureIter.close();
-			store.dispose();
-		}
-		
-		// Returning features found in shapefile
-		return features;
+		return coords;
 	}
 	
 	// Load features from a shapefile and establish them as an agent for GIS 3D visualization
 	// Inputs:
-    // 		filename - String for associated shapefile filename
+    // 		features - List of SimpleFeatures loaded from the boundary shapefile
 	//		context - Context layer created further up in build()
     // Outputs:
     //      Nothing returned - adds BoundaryZone agents for each polygon found in shapefile to Geography and Context
-	private void loadFeatures (String filename, Context context, Geography geography) {
-		List<SimpleFeature> features = loadFeaturesFromShapefile(filename);
+	private void loadFeatures (List<SimpleFeature> features, Context context, Geography geography) {
 		
 		for (SimpleFeature feature : features) {
 			Geometry geom = (Geometry)feature.getDefaultGeometry();
 			BoundaryZone boundary_zone = null;
 			
 			if (!geom.isValid()) {
-				System.out.println("Invalid geometry: " + feature.getID());
+				Log.warn(Log.SETUP, "Invalid geometry: " + feature.getID());
 			}
 			
 			if (geom instanceof Polygon) {
-				System.out.println("Feature found! Polygon: " + feature.getID()); // Console output to confirm feature class
+				Log.info(Log.SETUP, "Feature found! Polygon: " + feature.getID()); // Console output to confirm feature class
 				Polygon p = (Polygon)feature.getDefaultGeometry();
 				geom = (Polygon)p.getGeometryN(0);
 				
@@ -287,7 +247,7 @@ public class ContextBuilder implements repast.simphony.dataLoader.ContextBuilder
 			
 			// Got a MultiPolygon, get each Polygon contained and add it as a BoundaryZone
 			if (geom instanceof MultiPolygon) {
-				System.out.println("Feature found! MultiPolygon: " + feature.getID()); // Console output to confirm feature class
+				Log.info(Log.SETUP, "Feature found! MultiPolygon: " + feature.getID()); // Console output to confirm feature class
 				MultiPolygon mp = (MultiPolygon)feature.getDefaultGeometry();
 				for (int i = 0; i < mp.getNumGeometries(); i++) {
 					geom = (Polygon)mp.getGeometryN(i);
@@ -299,32 +259,15 @@ public class ContextBuilder implements repast.simphony.dataLoader.ContextBuilder
 			}
 			// Reporting feature class found if none of the above
 			else {
-				System.out.println("Geometry found is: " + feature.getDefaultGeometry());
+				Log.info(Log.SETUP, "Geometry found is: " + feature.getDefaultGeometry());
 			}
 		}
 	}
 	
-	// reprojection method for reprojecting a Geometery feature from NAD 83 GCS to Alaska Albers PCS projections
-	private Geometry reproject_geom(Geometry boundary) throws NoSuchAuthorityCodeException, FactoryException, MismatchedDimensionException, TransformException {
-		// Source: https://gis.stackexchange.com/q/134637
-		// Their source: Not sure but it works
-		CoordinateReferenceSystem sourceCRS = CRS.decode("EPSG:4269"); // NAD 83 GCS
-		CoordinateReferenceSystem destCRS = CRS.decode("EPSG:3338"); // Alaska Albers PCS
-		MathTransform transform = CRS.findMathTransform(sourceCRS, destCRS);
-		return JTS.transform(boundary, transform);
-	}
-	
 	// Get agent density from runtime parameters and translate according to boundary area into numbers of discrete agents
-	private int getNumAgents(Parameters params, Geometry boundary, String which_param) {
-		Geometry reproj_boundary = null;
-		try {
-			reproj_boundary = reproject_geom(boundary);
-		} catch (MismatchedDimensionException | FactoryException | TransformException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+	private int getNumAgents(Parameters params, Landscape landscape, String which_param) {
 		double agent_density = (Double) params.getValue(which_param);
-		double boundary_area = reproj_boundary.getArea();
+		double boundary_area = landscape.boundary_area;
 		//System.out.println("Area of target boundary: " + boundary_area + " m^2"); 
 		int numAgents = (int) (agent_density * (boundary_area / 1000000) );
 		if (which_param.equals("small_host_density")) numAgents /= 100;
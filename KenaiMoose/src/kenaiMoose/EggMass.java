@@ -0,0 +1,119 @@
+package kenaiMoose;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Point;
+
+import repast.simphony.engine.schedule.ScheduledMethod;
+
+public class EggMass {
+
+	/* Cohort of eggs laid together by one female, stepped as a single agent
+	 * 		parent_name, first_child - used to name individuals when the cohort splits
+	 * 		count - number of eggs still alive in the cohort
+	 * 		lifecycle_counter - steps since the eggs were laid, as in Tick
+	 * 		location - shared NAD83 position of every egg in the cohort
+	 * 		habitat - habitat suitability at the location, sampled once since eggs don't move
+	 *
+	 * Daily mortality is applied as one binomial draw over the cohort instead of one random number per egg.
+	 * The cohort splits into individual IxPacificus agents when it hatches into host-seeking larvae, or when
+	 * split() is called.
+	 */
+
+	private final String parent_name;
+	private final int first_child;
+	private int count;
+	private int lifecycle_counter;
+	private final Coordinate location;
+	private final Point point;
+	private final double habitat;
+	private final SplittableRandom random;
+
+	public EggMass(String parent_name, int first_child, int count, Coordinate location, Point point) {
+		this.parent_name = parent_name;
+		this.first_child = first_child;
+		this.count = count;
+		this.location = location;
+		this.point = point;
+		this.lifecycle_counter = 0;
+		this.random = RandomStreams.stream("Eggs " + first_child + " of " + parent_name);
+		if (Tick.habitat_sample > 0)
+			habitat = Tick.habitat_sample;
+		else
+			habitat = Tick.suitability_grid.sample(location.x, location.y);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public Point getPoint() {
+		return point;
+	}
+	
+	public String getLifestate() {
+		return "egg";
+	}
+
+	public double habitat_sample() {
+		return habitat;
+	}
+
+	public String getName() {
+		return "Eggs " + first_child + "-" + (first_child + count - 1) + " of " + parent_name;
+	}
+
+	// same per-egg rules the TickScheduler applies to Ticks in the "egg" stage, applied to the whole cohort
+	@ScheduledMethod(start = 1, interval = 1)
+	public void step() {
+		lifecycle_counter++;
+		double prob_death_per_day = (1 - habitat) / 365;
+		count -= Binomial.draw(count, prob_death_per_day, random);
+		if (count <= 0) {
+			remove();
+			return;
+		}
+		if (lifecycle_counter > Tick.EGG_LENGTH)
+			hatch();
+	}
+
+	// mirrors TickScheduler.skip_inactive_period() for every egg in the cohort
+	@ScheduledMethod(start = 90, interval = 90)
+	public void skip_inactive_period() {
+		double prob_death_per_day = (1 - habitat) / 365;
+		count -= Binomial.draw(count, prob_death_per_day * 275, random);
+		if (count <= 0) {
+			remove();
+			return;
+		}
+		lifecycle_counter += 275;
+	}
+
+	// hatching splits the cohort into individual host-seeking larvae
+	private void hatch() {
+		List<Tick> larvae = split();
+		for (Tick larva : larvae) {
+			larva.hatch();
+		}
+	}
+
+	// split the cohort into individual IxPacificus eggs carrying its lifecycle counter, removing the cohort
+	public List<Tick> split() {
+		List<Tick> ticks = new ArrayList<Tick>(count);
+		for (int i = 0; i < count; i++) {
+			ticks.add(new IxPacificus("Child " + (first_child + i) + " of " + parent_name, "egg"));
+		}
+		Tick.add_brood(ticks, point, lifecycle_counter);
+		count = 0;
+		remove();
+		return ticks;
+	}
+
+	private void remove() {
+		Tick.context.remove(this);
+	}
+
+}
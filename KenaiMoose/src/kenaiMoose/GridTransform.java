@@ -0,0 +1,89 @@
+package kenaiMoose;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.geometry.Envelope2D;
+
+public class GridTransform {
+
+	/* Affine world-to-pixel transform for a north-up raster, precomputed once so lookups are plain arithmetic
+	 * 		origin_x, origin_y - world coordinates of the upper left corner of the grid
+	 * 		cell_width, cell_height - size of a single cell in world units
+	 * 		cols, rows - dimensions of the grid in cells
+	 *
+	 * Cell counts and row-major indexes are long, a finer or larger landscape can have more than 2^31 cells.
+	 */
+
+	protected final double origin_x;
+	protected final double origin_y;
+	protected final double cell_width;
+	protected final double cell_height;
+	protected final int cols;
+	protected final int rows;
+
+	// inverses stored so world-to-pixel is a multiply rather than a divide
+	private final double inv_cell_width;
+	private final double inv_cell_height;
+
+	public GridTransform(double origin_x, double origin_y, double cell_width, double cell_height, int cols, int rows) {
+		this.origin_x = origin_x;
+		this.origin_y = origin_y;
+		this.cell_width = cell_width;
+		this.cell_height = cell_height;
+		this.cols = cols;
+		this.rows = rows;
+		inv_cell_width = 1.0 / cell_width;
+		inv_cell_height = 1.0 / cell_height;
+	}
+
+	// build the transform from the envelope and grid range of a loaded coverage
+	// NOTE: expects "org.geotools.referencing.forceXY" to be set so that x is longitude, as done in ContextBuilder
+	public static GridTransform fromCoverage(GridCoverage2D coverage) {
+		Envelope2D envelope = coverage.getEnvelope2D();
+		GridEnvelope2D range = coverage.getGridGeometry().getGridRange2D();
+		return new GridTransform(envelope.getMinX(), envelope.getMaxY(),
+				envelope.getWidth() / range.width, envelope.getHeight() / range.height,
+				range.width, range.height);
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public long size() {
+		return (long) cols * rows;
+	}
+
+	// column containing world x, may be outside [0, cols)
+	public int col(double x) {
+		return (int) Math.floor((x - origin_x) * inv_cell_width);
+	}
+
+	// row containing world y, may be outside [0, rows) - rows count downwards from origin_y
+	public int row(double y) {
+		return (int) Math.floor((origin_y - y) * inv_cell_height);
+	}
+
+	// row-major cell index for the world coordinate, or -1 if the coordinate falls outside the grid
+	public long index(double x, double y) {
+		int col = col(x);
+		int row = row(y);
+		if (col < 0 || col >= cols || row < 0 || row >= rows)
+			return -1;
+		return (long) row * cols + col;
+	}
+
+	// world coordinates for the center of a cell
+	public double center_x(int col) {
+		return origin_x + (col + 0.5) * cell_width;
+	}
+
+	public double center_y(int row) {
+		return origin_y - (row + 0.5) * cell_height;
+	}
+
+}
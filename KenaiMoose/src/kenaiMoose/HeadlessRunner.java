@@ -0,0 +1,187 @@
+package kenaiMoose;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import repast.simphony.batch.BatchScenarioLoader;
+import repast.simphony.data2.engine.FileSinkComponentControllerAction;
+import repast.simphony.data2.engine.FileSinkDescriptor;
+import repast.simphony.engine.controller.Controller;
+import repast.simphony.engine.controller.DefaultController;
+import repast.simphony.engine.environment.AbstractRunner;
+import repast.simphony.engine.environment.ControllerAction;
+import repast.simphony.engine.environment.ControllerRegistry;
+import repast.simphony.engine.environment.DefaultRunEnvironmentBuilder;
+import repast.simphony.engine.environment.RunEnvironmentBuilder;
+import repast.simphony.engine.environment.RunState;
+import repast.simphony.engine.schedule.ISchedule;
+import repast.simphony.parameter.ParameterSchema;
+import repast.simphony.parameter.Parameters;
+import repast.simphony.parameter.ParametersParser;
+
+public class HeadlessRunner extends AbstractRunner {
+
+	/* Command line entry point running a single KenaiMoose scenario without the Repast GUI
+	 * 		Usage: HeadlessRunner [-s scenario_dir] [-b batch_params.xml] [name=value ...]
+	 *
+	 * The scenario is loaded with Repast's batch loader, so display descriptors and their style classes are
+	 * never instantiated and RunEnvironment.isBatch() is true, which stops Hosts from creating InfectionZone
+	 * agents. Data sets and file sinks from the scenario still run. Parameters start from the scenario's
+	 * parameters.xml defaults, then constant values from a batch parameter file, then name=value arguments.
+	 */
+
+	private final RunEnvironmentBuilder run_environment_builder;
+	private final Controller controller;
+	private ISchedule schedule;
+	private boolean stopped = false;
+
+	public HeadlessRunner() {
+		run_environment_builder = new DefaultRunEnvironmentBuilder(this, true);
+		controller = new DefaultController(run_environment_builder);
+		controller.setScheduleRunner(this);
+	}
+
+	public static void main(String[] args) throws Exception {
+		File scenario_dir = new File("KenaiMoose.rs");
+		File batch_params = null;
+		Map<String, String> overrides = new LinkedHashMap<String, String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-s") && i + 1 < args.length)
+				scenario_dir = new File(args[++i]);
+			else if (args[i].equals("-b") && i + 1 < args.length)
+				batch_params = new File(args[++i]);
+			else if (args[i].contains("="))
+				overrides.put(args[i].substring(0, args[i].indexOf('=')), args[i].substring(args[i].indexOf('=') + 1));
+			else {
+				System.err.println("Usage: HeadlessRunner [-s scenario_dir] [-b batch_params.xml] [name=value ...]");
+				System.exit(1);
+			}
+		}
+
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		if (batch_params != null)
+			values.putAll(read_constants(batch_params));
+		values.putAll(overrides);
+		run_scenario(scenario_dir, values);
+		Log.flush();
+	}
+
+	// run one parameterization to completion
+	public static void run_scenario(File scenario_dir, Map<String, String> values) throws Exception {
+		run_scenario(scenario_dir, values, null);
+	}
+
+	// also the entry point SweepRunner calls in each isolated run, output_suffix is appended to every file sink
+	// name so concurrent runs don't write to the same file, null keeps the scenario's names
+	public static void run_scenario(File scenario_dir, Map<String, String> values, String output_suffix) throws Exception {
+		Parameters params = new ParametersParser(new File(scenario_dir, "parameters.xml")).getParameters();
+		apply(params, values);
+
+		long start = System.currentTimeMillis();
+		HeadlessRunner runner = new HeadlessRunner();
+		runner.load(scenario_dir, params, output_suffix);
+		runner.run();
+		runner.cleanup();
+		Log.info(Log.SETUP, "Headless run " + values + " finished in " + (System.currentTimeMillis() - start) / 1000.0 + " s.");
+	}
+
+	// read the constant parameters of a Repast batch parameter file, swept parameters need the sweep tooling
+	protected static Map<String, String> read_constants(File file) throws Exception {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		NodeList nodes = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file)
+				.getElementsByTagName("parameter");
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Element parameter = (Element) nodes.item(i);
+			if (parameter.getAttribute("type").equals("constant"))
+				values.put(parameter.getAttribute("name"), parameter.getAttribute("value"));
+			else
+				Log.warn(Log.SETUP, "Skipping swept parameter " + parameter.getAttribute("name") + " in " + file + ".");
+		}
+		return values;
+	}
+
+	// convert each value with the parameter's own schema so types match parameters.xml
+	protected static void apply(Parameters params, Map<String, String> values) {
+		List<String> unknown = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			ParameterSchema details = params.getSchema().getDetails(entry.getKey());
+			if (details == null) {
+				unknown.add(entry.getKey());
+				continue;
+			}
+			params.setValue(entry.getKey(), details.fromString(entry.getValue()));
+		}
+		if (!unknown.isEmpty())
+			Log.warn(Log.SETUP, "Ignoring parameters not defined in parameters.xml: " + unknown);
+	}
+
+	public void load(File scenario_dir, Parameters params) throws Exception {
+		load(scenario_dir, params, null);
+	}
+
+	public void load(File scenario_dir, Parameters params, String output_suffix) throws Exception {
+		if (!scenario_dir.exists())
+			throw new IllegalArgumentException("Scenario directory not found: " + scenario_dir);
+		BatchScenarioLoader loader = new BatchScenarioLoader(scenario_dir);
+		ControllerRegistry registry = loader.load(run_environment_builder);
+		if (output_suffix != null)
+			rename_file_sinks(registry, output_suffix);
+		controller.setControllerRegistry(registry);
+		controller.batchInitialize();
+		controller.runParameterSetters(params);
+		controller.runInitialize(params);
+		schedule = RunState.getInstance().getScheduleRegistry().getModelSchedule();
+	}
+
+	// the sinks open their files when the controller initializes, so their descriptors can still be renamed
+	private static void rename_file_sinks(ControllerRegistry registry, String suffix) {
+		registry.getActionTree(registry.getMasterContextId()).preOrderTraversal((ControllerAction action) -> {
+			if (action instanceof FileSinkComponentControllerAction) {
+				FileSinkDescriptor descriptor = ((FileSinkComponentControllerAction) action).getDescriptor();
+				descriptor.setFileName(descriptor.getFileName() + suffix);
+			}
+		});
+	}
+
+	// execute scheduled actions until RunEnvironment.endAt() stops the run or the schedule empties
+	public void run() {
+		while (!stopped && schedule.getActionCount() > 0) {
+			if (schedule.getModelActionCount() == 0)
+				schedule.setFinishing(true);
+			schedule.execute();
+		}
+		if (!stopped)
+			stop();
+	}
+
+	public void cleanup() {
+		controller.runCleanup();
+		controller.batchCleanup();
+	}
+
+	@Override
+	public void step() {
+		schedule.execute();
+	}
+
+	@Override
+	public void stop() {
+		stopped = true;
+		if (schedule != null)
+			schedule.executeEndActions();
+	}
+
+	@Override
+	public void execute(RunState state) {
+		// the schedule is driven by run() rather than a separate runner thread
+	}
+
+}
@@ -0,0 +1,114 @@
+package kenaiMoose;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+public class HomeRangeRegistry {
+
+	/* Unattached Ticks inside each static SmHost home range, kept up to date by the TickIndex
+	 * 		min_x, min_y, max_x, max_y - home range boxes in EPSG:3338 metres, indexed by range id
+	 * 		members - per-range set of the indexed Ticks inside its box, iterated in insertion order
+	 * 		cell_ranges, cell_counts - per-cell lists of the ranges overlapping each cell of the TickIndex grid
+	 *
+	 * Home ranges never move, so instead of every SmHost re-querying its box each step the registry is told
+	 * when a Tick enters or leaves the TickIndex (placement, birth, attach, detach, death) and updates the few
+	 * ranges covering that position. A SmHost step then just copies its own set. Cells are always given by the
+	 * TickIndex, so the registry has no grid mapping of its own to drift from the index's.
+	 */
+
+	private double[] min_x = new double[16];
+	private double[] min_y = new double[16];
+	private double[] max_x = new double[16];
+	private double[] max_y = new double[16];
+	private LinkedHashSet<Tick>[] members = new_members(16);
+	private int size;
+
+	private final int[][] cell_ranges;
+	private final int[] cell_counts;
+
+	// cells - number of cells in the grid of the TickIndex it is attached to
+	public HomeRangeRegistry(int cells) {
+		cell_ranges = new int[cells][];
+		cell_counts = new int[cells];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static LinkedHashSet<Tick>[] new_members(int length) {
+		return new LinkedHashSet[length];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// register a home range box and return its id, the caller adds the cells it overlaps with cover() and
+	// the Ticks already inside it with add_member()
+	public int add(double range_min_x, double range_min_y, double range_max_x, double range_max_y) {
+		int id = size++;
+		if (id == min_x.length) {
+			int new_length = id * 2;
+			min_x = Arrays.copyOf(min_x, new_length);
+			min_y = Arrays.copyOf(min_y, new_length);
+			max_x = Arrays.copyOf(max_x, new_length);
+			max_y = Arrays.copyOf(max_y, new_length);
+			members = Arrays.copyOf(members, new_length);
+		}
+		min_x[id] = range_min_x;
+		min_y[id] = range_min_y;
+		max_x[id] = range_max_x;
+		max_y[id] = range_max_y;
+		members[id] = new LinkedHashSet<Tick>();
+		return id;
+	}
+
+	// a TickIndex cell overlapped by a home range
+	public void cover(int id, int cell) {
+		if (cell_ranges[cell] == null)
+			cell_ranges[cell] = new int[4];
+		else if (cell_counts[cell] == cell_ranges[cell].length)
+			cell_ranges[cell] = Arrays.copyOf(cell_ranges[cell], cell_counts[cell] * 2);
+		cell_ranges[cell][cell_counts[cell]++] = id;
+	}
+
+	public void add_member(int id, Tick tick) {
+		members[id].add(tick);
+	}
+
+	// a Tick was added to the TickIndex at x, y in cell
+	public void inserted(Tick tick, int cell, double x, double y) {
+		int[] ranges = cell_ranges[cell];
+		for (int i = 0; i < cell_counts[cell]; i++) {
+			int id = ranges[i];
+			if (x >= min_x[id] && x <= max_x[id] && y >= min_y[id] && y <= max_y[id])
+				members[id].add(tick);
+		}
+	}
+
+	// a batch of Ticks was added to the TickIndex at the same x, y in cell
+	public void inserted(List<Tick> ticks, int cell, double x, double y) {
+		int[] ranges = cell_ranges[cell];
+		for (int i = 0; i < cell_counts[cell]; i++) {
+			int id = ranges[i];
+			if (x >= min_x[id] && x <= max_x[id] && y >= min_y[id] && y <= max_y[id])
+				members[id].addAll(ticks);
+		}
+	}
+
+	// a Tick indexed in cell was removed from the TickIndex
+	public void removed(Tick tick, int cell) {
+		int[] ranges = cell_ranges[cell];
+		for (int i = 0; i < cell_counts[cell]; i++)
+			members[ranges[i]].remove(tick);
+	}
+
+	// copy the Ticks currently inside a home range, callers may attach them while iterating the copy
+	public void members(int id, List<Tick> result) {
+		result.addAll(members[id]);
+	}
+
+	public int count(int id) {
+		return members[id].size();
+	}
+
+}
@@ -3,16 +3,15 @@ package kenaiMoose;
 
 import java.util.ArrayList;
 import java.util.List;
-
-import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.geometry.DirectPosition2D;
-import org.opengis.geometry.DirectPosition;
+import java.util.SplittableRandom;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 
 import repast.simphony.context.Context;
 import repast.simphony.engine.schedule.ScheduleParameters;
@@ -30,6 +29,9 @@ public abstract class Host {
 	 * 		geofac - GeometryFactory for generating Geometry objects for use by Host agents
 	 * 		context - storage variable for obtaining the Context the Host agent was added to
 	 * 		geography - gets the Geography projection object for the Host agent
+	 * 		x, y - position in EPSG:3338 metres, kept current in both movement modes for encounter tests
+	 * 		planar - if true, agents move arithmetically in x, y and are only written back to the Geography
+	 * 		         (in NAD83) for display (STATIC)
 	 */
 	
 	protected Context context;
@@ -39,31 +41,73 @@ public abstract class Host {
 	protected String name;
 	protected boolean is_infected;
 	protected static Geometry boundary;
+	protected static PreparedGeometry prepared_boundary; // indexed boundary for repeated containment tests
+	protected static LandscapeMask landscape_mask;
+	protected static BarrierField barrier_field; // null when the mask is tiled, Moose then bounce by trial moves
+	protected static boolean display = true; // false when no GIS display is attached (batch runs)
+	protected static boolean planar = false;
+	protected static TickPopulation tick_population; // set when ticks are stepped in bulk rather than as agents
+	protected int population_id = -1;
+	protected double x;
+	protected double y;
+	protected final double[] xy = new double[2]; // scratch buffer for projecting between NAD83 and EPSG:3338
 	protected double infection_radius;
 	protected Envelope infection_area;
 	protected InfectionZone infection_zone;
-	protected ArrayList<Tick> tick_list;
+	protected TickBurden burden;
+	protected SplittableRandom random; // this Host's own stream, derived from the run seed and its name
 	
 	public Host() {
 		this.name = "No name";	
 		this.is_infected = false;
+		this.random = RandomStreams.stream(name);
 	}
 	
 	// Giving each Host a unique name for identification/tracking purposes
 	public Host(String name) {
 		this.name = name;
 		this.is_infected = false;
-		tick_list = new ArrayList<Tick>();
+		this.random = RandomStreams.stream(name);
+		burden = new TickBurden();
 	}
 	
 	@ScheduledMethod(start = 0)
 	public void init() {
 		context = ContextUtils.getContext(this);
 		geography = (Geography)context.getProjection("Kenai");
+		update_planar();
+		if (tick_population != null)
+			population_id = tick_population.register(this);
 	}
 	
 	public static void setBoundary(Geometry boundary) {
 		Host.boundary = boundary;
+		Host.prepared_boundary = PreparedGeometryFactory.prepare(boundary);
+	}
+	
+	// set whether InfectionZone geometries need to be kept up to date for the GIS display
+	public static void setDisplay(boolean display) {
+		Host.display = display;
+	}
+	
+	// set whether Host agents move in EPSG:3338 metres rather than through the Geography
+	public static void setPlanar(boolean planar) {
+		Host.planar = planar;
+	}
+	
+	// set the TickPopulation that Host agents attach ticks from instead of Tick agents
+	public static void setPopulation(TickPopulation population) {
+		Host.tick_population = population;
+	}
+	
+	// set the static land/water and boundary mask shared by all Host agents
+	public static void setMask(LandscapeMask mask) {
+		Host.landscape_mask = mask;
+	}
+	
+	// set the static distance-to-barrier field used to reflect moving Hosts off water and the boundary
+	public static void setBarriers(BarrierField barriers) {
+		Host.barrier_field = barriers;
 	}
 	
 	public String getName() {
@@ -83,30 +127,93 @@ public abstract class Host {
 	}
 	
 	public int getNumTicks() {
-		return tick_list.size();
+		if (tick_population != null)
+			return tick_population.burden(population_id);
+		return burden.size();
 	}
 	
-	public ArrayList<Tick> get_ticks() {
-		return tick_list;
+	// adult burden by sex for reporting
+	public int getNumFemales() {
+		if (tick_population != null)
+			return tick_population.burden(population_id, true);
+		return burden.count(TickBurden.FEMALE);
+	}
+	
+	public int getNumMales() {
+		if (tick_population != null)
+			return tick_population.burden(population_id, false);
+		return burden.count(TickBurden.MALE);
+	}
+	
+	public TickBurden get_ticks() {
+		return burden;
 	}
 	
 	public void add_tick(Tick tick) {
-		tick_list.add(tick);
+		burden.add(tick);
 	}
 	
 	public void remove_tick(Tick tick) {
-		tick_list.remove(tick);
-		if (tick_list.size() <= 0) {
+		burden.remove(tick);
+		if (burden.size() <= 0 && infection_zone != null) {
+			infection_zone.setInfected(false);
+		}
+	}
+	
+	// detach every Tick in the burden in one pass for killing them, into removed - unlike Tick.detach() the
+	// Ticks are not dropped back on the landscape, indexed or made active again
+	protected void clear_burden(List<Tick> removed) {
+		int start = removed.size();
+		burden.clear(removed);
+		for (int i = start; i < removed.size(); i++) {
+			Tick tick = removed.get(i);
+			tick.attached = false;
+			tick.attach_count = 0;
+			tick.host = null;
+		}
+		if (infection_zone != null) {
 			infection_zone.setInfected(false);
 		}
 	}
 	
 	// Return Coordinate of Host agent used for attaching other agents
 	public Coordinate getCoord() {
+		if (planar)
+			return AlaskaAlbers.EPSG_3338.toCoordinate(x, y);
 		Coordinate coord = new Coordinate(geography.getGeometry(this).getCoordinate());
 		return coord;
 	}
 	
+	// Refresh x, y from the agent's current position in the Geography
+	protected void update_planar() {
+		Coordinate coord = geography.getGeometry(this).getCoordinate();
+		AlaskaAlbers.EPSG_3338.project(coord.x, coord.y, xy);
+		x = xy[0];
+		y = xy[1];
+	}
+	
+	// Write x, y back to the Geography, only needed in planar mode when something displays the agent
+	protected void sync_geography() {
+		geography.move(this, geoFac.createPoint(AlaskaAlbers.EPSG_3338.toCoordinate(x, y)));
+	}
+	
+	// Landscape mask cell code at a position in EPSG:3338 metres
+	protected int sample_mask(double x, double y) {
+		AlaskaAlbers.EPSG_3338.unproject(x, y, xy);
+		return landscape_mask.sample(xy[0], xy[1]);
+	}
+	
+	// standard normal draw from the Host's stream (Marsaglia polar method, SplittableRandom has no nextGaussian)
+	protected double gaussian() {
+		double u, v, s;
+		do {
+			u = 2 * random.nextDouble() - 1;
+			v = 2 * random.nextDouble() - 1;
+			s = u * u + v * v;
+		} while (s >= 1 || s == 0);
+		return u * Math.sqrt(-2 * Math.log(s) / s);
+	}
+	
 	public Point getPoint() {
 		Point point = geoFac.createPoint(getCoord());
 		return point;
@@ -117,10 +224,12 @@ public abstract class Host {
 		return geography;
 	}
 	
-	// Generate InfectionZone agent around Host
+	// Generate InfectionZone agent around Host, the agent is only created when there is a display to draw it
 	protected Geometry addBuffer(double infection_radius) {
 		Geometry infection_buffer = GeometryUtil.generateBuffer(geography, geography.getGeometry(this), infection_radius);
 		Geometry infection_geom = geoFac.createGeometry(infection_buffer);
+		if (!display)
+			return infection_geom;
 		infection_zone = new InfectionZone();
 		context.add(infection_zone);
 		geography.move(infection_zone, infection_geom);
@@ -128,33 +237,17 @@ public abstract class Host {
 		return infection_geom;
 	}
 	
-	// Return List of Ticks found within infection_area Envelope
+	// Return List of Ticks found within the square of side 2 * infection_radius around the Host
 	protected List<Tick> getTicks() {
-		Geometry infection_buffer = GeometryUtil.generateBuffer(geography, geography.getGeometry(this), infection_radius);
-		Geometry infection_geom = geoFac.createGeometry(infection_buffer);
-		Envelope infection_envelope = infection_geom.getEnvelopeInternal();
-		
-		Iterable<Tick> infectingTicks = geography.getObjectsWithin(infection_envelope, IxPacificus.class);
-		List<Tick> tickList = new ArrayList();
-		
-		for (Tick tick : infectingTicks) {
-			if(!tick.isAttached()) {
-				tickList.add((Tick)tick);
-			}
-		}
+		// TickIndex only holds unattached Ticks so no further filtering is needed
+		List<Tick> tickList = new ArrayList<Tick>();
+		Tick.tick_index.query(x - infection_radius, y - infection_radius, x + infection_radius, y + infection_radius, tickList);
 		return tickList;
 	}
 	
-	// Check to see if area at coordinate is water in NLCD landuse raster
+	// Check to see if area at coordinate is water in NLCD landuse raster, using the precomputed mask
 	public boolean isWater(Coordinate coord) {
-		GridCoverage2D landuse_coverage = geography.getCoverage("NLCD Landuse");
-		// Create DirectPosition used to evaluate GridCoverage2D
-		DirectPosition position = new DirectPosition2D(geography.getCRS(), coord.x, coord.y);
-		int[] sample = (int[]) landuse_coverage.evaluate(position);
-		if (sample[0] == 11 || sample[0] == 12)
-			return true;
-		else
-			return false;
+		return landscape_mask.is_water(coord.x, coord.y);
 	}
 	
 	// Move the associated InfectionZone to new Host agent location after moving
@@ -168,30 +261,33 @@ public abstract class Host {
 	protected void processInfections(List<Tick> tickList) {
 		if (tickList.size() > 0) {
 			for (Tick tick : tickList) {
-				if (!tick.is_laying_eggs())
+				// candidates are gathered before any Host attaches, so an earlier Host may already hold the Tick
+				if (!tick.is_laying_eggs() && !tick.isAttached())
 					tick.attach(this);
 			}
 		}
-		// Update color of InfectionZone based on infections
-		if (tick_list.size() > 0) {
-			is_infected = true;
-			infection_zone.setInfected(true);
-			return;
-		}
-		
-		else {
-			is_infected = false;
-			infection_zone.setInfected(false);
-			return;
-		}
+		updateInfected();
 	}
 	
-	// Method to control actions performed in each step
-	public abstract void step();
+	// Update color of InfectionZone based on infections
+	protected void updateInfected() {
+		is_infected = getNumTicks() > 0;
+		if (infection_zone != null)
+			infection_zone.setInfected(is_infected);
+	}
 	
 	// Method to be defined on how the Host will walk at each step
+	// in planar mode walk() runs in parallel with other Hosts, so it may only read shared data and write the
+	// Host's own fields, anything else belongs in commit_walk()
 	protected abstract void walk();
 	
+	// serial follow-up to walk() for changes to shared state such as the Geography or attached Ticks
+	protected void commit_walk() {
+	}
+	
+	// encounter phase when ticks are stepped in bulk by a TickPopulation
+	protected abstract void attach_population();
+	
 
 }
 
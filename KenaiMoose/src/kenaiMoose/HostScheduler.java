@@ -0,0 +1,78 @@
+package kenaiMoose;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.engine.schedule.ScheduledMethod;
+
+public class HostScheduler {
+
+	/* Steps every Host agent in phases instead of one scheduled step() per agent
+	 * 		large_hosts - Moose, stepped before Ticks (FIRST_PRIORITY) so they pick up adults first
+	 * 		small_hosts - SmHosts, stepped after Ticks (LAST_PRIORITY)
+	 *
+	 * Each step runs in three phases over a group of Hosts:
+	 * 		1. movement - walk() for every Host. In planar mode walk() only reads the landscape and writes the
+	 * 		   Host's own position, so it runs in parallel on the common fork-join pool. The geographic walk
+	 * 		   moves agents through the shared Geography and stays serial.
+	 * 		2. commit - commit_walk() serially, for Geography updates and killing ticks after leaving the boundary,
+	 * 		   then the killed ticks are removed from the Context in one batch
+	 * 		3. encounter - candidate ticks are gathered in parallel from the read-only TickIndex, then attached
+	 * 		   serially in registration order, so a tick claimed by several Hosts goes to the first one
+	 */
+
+	private final List<Host> large_hosts = new ArrayList<Host>();
+	private final List<Host> small_hosts = new ArrayList<Host>();
+
+	public void add(Host host) {
+		if (host instanceof SmHost)
+			small_hosts.add(host);
+		else
+			large_hosts.add(host);
+	}
+
+	// Moose actions every tick should be prioritized for adult Tick attachment behavior
+	@ScheduledMethod(start = 1, interval = 1, priority = ScheduleParameters.FIRST_PRIORITY)
+	public void step_large_hosts() {
+		step(large_hosts);
+	}
+
+	@ScheduledMethod(start = 1, interval = 1, priority = ScheduleParameters.LAST_PRIORITY)
+	public void step_small_hosts() {
+		step(small_hosts);
+	}
+
+	private void step(List<Host> hosts) {
+		int count = hosts.size();
+		if (count == 0)
+			return;
+
+		// movement phase
+		if (Host.planar)
+			IntStream.range(0, count).parallel().forEach(i -> hosts.get(i).walk());
+		else
+			for (Host host : hosts)
+				host.walk();
+
+		// commit phase, ticks killed with their Host leave the Context together
+		for (Host host : hosts)
+			host.commit_walk();
+		if (Tick.scheduler != null)
+			Tick.scheduler.commit_deaths();
+
+		// encounter phase, the TickPopulation attaches in bulk and isn't safe to query concurrently
+		if (Host.tick_population != null) {
+			for (Host host : hosts)
+				host.attach_population();
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		List<Tick>[] candidates = new List[count];
+		IntStream.range(0, count).parallel().forEach(i -> candidates[i] = hosts.get(i).getTicks());
+		for (int i = 0; i < count; i++)
+			hosts.get(i).processInfections(candidates[i]);
+	}
+
+}
@@ -23,9 +23,14 @@ public class IxPacificus extends Tick {
 		set_attach_length(life_stage);
 	}
 	
-	// Padgett & Lane (2001) used for rough mortality length numbers
 	public void init() {
 		super.init();
+		set_lifecycle_lengths();
+	}
+	
+	// Padgett & Lane (2001) used for rough mortality length numbers
+	// static so a TickPopulation can share the same values without any IxPacificus agents
+	protected static void set_lifecycle_lengths() {
 		EGG_LENGTH = 60;
 		LARVA_LENGTH = 450;
 		LARVA_FEED_LENGTH = 4;
@@ -61,8 +66,8 @@ public class IxPacificus extends Tick {
 		}
 		// female behavior
 		else {
+			laying_eggs = true; // set before detaching so the egg laying female isn't offered to Hosts again
 			detach(); // start by dropping off host
-			laying_eggs = true;
 			eggs_remaining = EGG_COUNT;
 			child_count = 0;
 			lay_eggs(); // need to do the first call of laying eggs
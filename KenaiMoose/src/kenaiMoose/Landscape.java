@@ -0,0 +1,228 @@
+package kenaiMoose;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.GridFormatFinder;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.geometry.MismatchedDimensionException;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.NoSuchAuthorityCodeException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPolygon;
+
+public class Landscape {
+
+	/* Read-only landscape data for a run, loaded from ./data once and shareable between concurrent runs
+	 * 		features, boundary - Kenai watershed shapefile features and the boundary MultiPolygon (NAD83)
+	 * 		boundary_area - boundary area in m^2 after reprojecting to EPSG:3338, used for host densities
+	 * 		tick_extent - boundary envelope in EPSG:3338 metres for the tick spatial indexes
+	 * 		*_coverage - loaded rasters, kept for the GIS display
+	 * 		suitability, mask - decoded habitat suitability grid and land/water/boundary mask for agents
+	 * 		barriers - distance field to the nearest water or boundary cell of the mask, null for a tiled mask
+	 * 		land_sampler, suitability_sampler - SpawnSamplers over the mask's land cells, built on first use
+	 *
+	 * Nothing here is modified after load(), so one instance can back any number of runs at once. A sweep sets
+	 * the shared instance before starting its runs and ContextBuilder uses it instead of reading the files again.
+	 * Runs without a display can use LandscapeCache instead, which skips GeoTools and the reprojection.
+	 */
+
+	public static final File BOUNDARY_SHAPEFILE = new File("./data/KenaiWatershed3D_NAD83.shp");
+	public static final File LANDUSE_RASTER = new File("./data/nlcd_GCS_NAD83.tif");
+	public static final File SUITABILITY_RASTER = new File("./data/brt_prob_map_NAD83.tif");
+	public static final File BOUNDARY_RASTER = new File("./data/KenaNAD83.tif");
+
+	private static Landscape shared;
+
+	public final List<SimpleFeature> features;
+	public final Geometry boundary;
+	public final double boundary_area;
+	public final Envelope tick_extent;
+	public final GridCoverage2D landuse_coverage;
+	public final GridCoverage2D suitability_coverage;
+	public final GridCoverage2D boundary_coverage;
+	public final SuitabilityGrid suitability;
+	public final LandscapeMask mask;
+	public final BarrierField barriers;
+	private SpawnSampler land_sampler;
+	private SpawnSampler suitability_sampler;
+
+	private Landscape(List<SimpleFeature> features, double boundary_area, GridCoverage2D landuse_coverage,
+			GridCoverage2D suitability_coverage, GridCoverage2D boundary_coverage) {
+		this.features = Collections.unmodifiableList(features);
+		this.boundary = (MultiPolygon) features.iterator().next().getDefaultGeometry();
+		this.boundary_area = boundary_area;
+		this.tick_extent = AlaskaAlbers.EPSG_3338.project(boundary.getEnvelopeInternal());
+		this.landuse_coverage = landuse_coverage;
+		this.suitability_coverage = suitability_coverage;
+		this.boundary_coverage = boundary_coverage;
+		this.suitability = suitability_coverage == null ? null : SuitabilityGrid.fromCoverage(suitability_coverage,
+				TiledRaster.tile_file("suitability", SUITABILITY_RASTER));
+		// Packing the landuse and boundary rasters into a single bit mask for land/water and boundary checks
+		this.mask = LandscapeMask.fromCoverages(landuse_coverage, boundary_coverage,
+				TiledRaster.tile_file("mask", LANDUSE_RASTER, BOUNDARY_RASTER));
+		this.barriers = BarrierField.fromMask(mask);
+	}
+
+	// landscape read back from a LandscapeCache, which keeps no features or coverages
+	// barriers is computed from the mask when the cache didn't store it
+	Landscape(Geometry boundary, double boundary_area, SuitabilityGrid suitability, LandscapeMask mask,
+			BarrierField barriers) {
+		this.features = Collections.emptyList();
+		this.boundary = boundary;
+		this.boundary_area = boundary_area;
+		this.tick_extent = AlaskaAlbers.EPSG_3338.project(boundary.getEnvelopeInternal());
+		this.landuse_coverage = null;
+		this.suitability_coverage = null;
+		this.boundary_coverage = null;
+		this.suitability = suitability;
+		this.mask = mask;
+		this.barriers = barriers != null ? barriers : BarrierField.fromMask(mask);
+	}
+
+	// landscape shared by every run in this JVM, null when each run loads its own
+	public static Landscape getShared() {
+		return shared;
+	}
+
+	public static void setShared(Landscape landscape) {
+		shared = landscape;
+	}
+
+	// every land cell equally likely, built once however many runs share the landscape
+	public synchronized SpawnSampler land_sampler() {
+		if (land_sampler == null)
+			land_sampler = SpawnSampler.build(mask, null);
+		return land_sampler;
+	}
+
+	// land cells weighted by habitat suitability, null when the suitability raster wasn't loaded
+	public synchronized SpawnSampler suitability_sampler() {
+		if (suitability_sampler == null && suitability != null)
+			suitability_sampler = SpawnSampler.build(mask, suitability);
+		return suitability_sampler;
+	}
+
+	// load the landscape from ./data, the habitat suitability raster is skipped when a constant value is used
+	public static Landscape load(boolean with_suitability) {
+		// Establishing Kenai boundary area from shapefile
+		List<SimpleFeature> features = loadFeaturesFromShapefile(BOUNDARY_SHAPEFILE.getPath());
+		Geometry boundary = (MultiPolygon) features.iterator().next().getDefaultGeometry();
+		double boundary_area = 0;
+		try {
+			boundary_area = reproject_geom(boundary).getArea();
+		} catch (MismatchedDimensionException | FactoryException | TransformException e) {
+			e.printStackTrace();
+		}
+
+		GridCoverage2D landuse_coverage = null;
+		GridCoverage2D suitability_coverage = null;
+		GridCoverage2D boundary_coverage = null;
+		try {
+			landuse_coverage = loadRaster(LANDUSE_RASTER.getPath());
+		} catch (IOException e) {
+			Log.error(Log.SETUP, "Error loading NLCD landcover raster.");
+		}
+		if (with_suitability) {
+			try {
+				suitability_coverage = loadRaster(SUITABILITY_RASTER.getPath());
+			} catch (IOException e) {
+				Log.error(Log.SETUP, "Error loading habitat suitability raster.");
+			}
+		}
+		// Loading rasterized geospatial boundary for optimization purposes
+		try {
+			boundary_coverage = loadRaster(BOUNDARY_RASTER.getPath());
+		} catch (IOException e) {
+			Log.error(Log.SETUP, "Error loading boundary raster.");
+		}
+		return new Landscape(features, boundary_area, landuse_coverage, suitability_coverage, boundary_coverage);
+	}
+
+	// Load GeoTiff rasters and convert to a 2DGridCoverage to be returned
+	// NOTE: May work with other filetypes with varying effect
+	//       Rasters must contain appropriate worldfile for proper positioning in geography projection
+	private static GridCoverage2D loadRaster(String filename) throws IOException {
+		File file = new File(filename);
+		AbstractGridFormat format = GridFormatFinder.findFormat(file);
+		GridCoverage2DReader reader = format.getReader(file);
+
+		// Storing raster data as a GridCoverage2D object and returning object
+		if (reader != null) {
+			return reader.read(null);
+		}
+		else {
+			throw new IOException("No reader.");
+		}
+	}
+
+	// Get features from a shapefile as a List for use in GIS logic
+	// Inputs:
+	//		filename - String representation of shapefile filename
+	// Outputs:
+	// 		List of SimpleFeatures containing each feature found in the shapefile
+	private static List<SimpleFeature> loadFeaturesFromShapefile(String filename) {
+
+		// Establish filepath
+		URL url = null;
+		try {
+			url = new File(filename).toURL();
+		} catch(MalformedURLException e1) {
+			e1.printStackTrace();
+		}
+
+		List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+
+		// Attempt to load shapefile
+		SimpleFeatureIterator featureIter = null;
+		ShapefileDataStore store = null;
+		store = new ShapefileDataStore(url);
+
+		try {
+			featureIter = store.getFeatureSource().getFeatures().features();
+
+			while(featureIter.hasNext()) {
+				features.add(featureIter.next());
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+
+		// Tidying up
+		finally {
+			featureIter.close();
+			store.dispose();
+		}
+
+		// Returning features found in shapefile
+		return features;
+	}
+
+	// reprojection method for reprojecting a Geometery feature from NAD 83 GCS to Alaska Albers PCS projections
+	private static Geometry reproject_geom(Geometry boundary) throws NoSuchAuthorityCodeException, FactoryException, MismatchedDimensionException, TransformException {
+		// Source: https://gis.stackexchange.com/q/134637
+		// Their source: Not sure but it works
+		CoordinateReferenceSystem sourceCRS = CRS.decode("EPSG:4269"); // NAD 83 GCS
+		CoordinateReferenceSystem destCRS = CRS.decode("EPSG:3338"); // Alaska Albers PCS
+		MathTransform transform = CRS.findMathTransform(sourceCRS, destCRS);
+		return JTS.transform(boundary, transform);
+	}
+
+}
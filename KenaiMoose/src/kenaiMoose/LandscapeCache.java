@@ -0,0 +1,394 @@
+package kenaiMoose;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+public class LandscapeCache {
+
+	/* Preprocessed binary snapshot of the Landscape, read back with a memory map instead of GeoTools
+	 * 		Usage: LandscapeCache [-check] [cache_file] - preprocesses ./data into ./data/landscape.cache by default,
+	 * 		       -check also round trips the landscape through both layer layouts and exits 1 on a mismatch
+	 *
+	 * The file holds what the agents use: the boundary as WKB and its EPSG:3338 area, the LandscapeMask bits
+	 * and the SuitabilityGrid values with their transforms, and the mask's BarrierField so that cached runs
+	 * skip its distance transforms. The size and modification time of every source
+	 * file are recorded too, so a cache older than its sources is rebuilt rather than used. Coverages and
+	 * shapefile features are not stored, a cached Landscape is for runs without a GIS display. Tiled layers
+	 * are already memory-mapped files, so the cache only records the path, size and modification time of
+	 * their TiledRaster files, and a cache whose tile files changed is rebuilt like one with changed sources.
+	 *
+	 * Layout, little-endian, arrays aligned to 8 bytes:
+	 * 		magic, version, source count, (length, modified) per source,
+	 * 		tile file count, (path length, path, length, modified) per tile file, boundary_area, WKB length, WKB,
+	 * 		mask kind, mask transform, mask bit count and bits or tile file number,
+	 * 		suitability kind, [suitability transform, values or tile file number],
+	 * 		barrier kind, [margin, min_spacing, distances on the mask grid]
+	 */
+
+	public static final File DEFAULT_FILE = new File("./data/landscape.cache");
+
+	private static final int MAGIC = 0x4b4d4c43; // "KMLC"
+	private static final int VERSION = 4;
+
+	// how a layer is stored in the cache
+	private static final int ABSENT = 0;
+	private static final int ARRAY = 1;
+	private static final int TILED = 2;
+	private static final File[] SOURCES = { Landscape.BOUNDARY_SHAPEFILE, Landscape.LANDUSE_RASTER,
+			Landscape.SUITABILITY_RASTER, Landscape.BOUNDARY_RASTER };
+
+	public static void main(String[] args) throws IOException, ParseException {
+		boolean check = args.length > 0 && args[0].equals("-check");
+		int first = check ? 1 : 0;
+		File file = args.length > first ? new File(args[first]) : DEFAULT_FILE;
+		long start = System.currentTimeMillis();
+		Landscape landscape = Landscape.load(true);
+		write(landscape, file);
+		Log.info(Log.SETUP, "Landscape cache written to " + file + " (" + file.length() / 1024 + " KiB) in "
+				+ (System.currentTimeMillis() - start) / 1000.0 + " s.");
+		boolean passed = !check || check_round_trip(landscape, file.getAbsoluteFile().getParentFile());
+		Log.flush();
+		if (!passed)
+			System.exit(1);
+	}
+
+	// the cached landscape when it is current, otherwise the landscape loaded from ./data and cached for next time
+	public static Landscape load() {
+		if (is_current(DEFAULT_FILE)) {
+			try {
+				return read(DEFAULT_FILE);
+			} catch (IOException | ParseException | IllegalStateException e) {
+				Log.warn(Log.SETUP, "Ignoring unreadable landscape cache " + DEFAULT_FILE + ": " + e.getMessage());
+			}
+		}
+		Landscape landscape = Landscape.load(true);
+		try {
+			write(landscape, DEFAULT_FILE);
+		} catch (IOException | RuntimeException e) {
+			Log.warn(Log.SETUP, "Could not write landscape cache " + DEFAULT_FILE + ": " + e.getMessage());
+		}
+		return landscape;
+	}
+
+	// true when the cache exists and was written from the source and tile files as they are now
+	public static boolean is_current(File file) {
+		if (!file.isFile())
+			return false;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.remaining() < 12 || header.getInt() != MAGIC || header.getInt() != VERSION
+					|| header.getInt() != SOURCES.length)
+				return false;
+			for (File source : SOURCES) {
+				if (header.getLong() != source.length() || header.getLong() != source.lastModified())
+					return false;
+			}
+			return read_tiles(header) != null;
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	/* Reading */
+
+	public static Landscape read(File file) throws IOException, ParseException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			throw new IllegalStateException("not a version " + VERSION + " landscape cache");
+		int sources = buffer.getInt();
+		buffer.position(buffer.position() + sources * 16); // source stamps, checked by is_current()
+		File[] tiles = read_tiles(buffer);
+		if (tiles == null)
+			throw new IllegalStateException("tile files changed since the cache was written");
+
+		double boundary_area = buffer.getDouble();
+		byte[] wkb = new byte[buffer.getInt()];
+		buffer.get(wkb);
+		Geometry boundary = new WKBReader().read(wkb);
+
+		int mask_kind = buffer.getInt();
+		GridTransform mask_transform = read_transform(buffer);
+		LandscapeMask mask;
+		if (mask_kind == TILED) {
+			mask = new LandscapeMask(TiledRaster.open(tiles[buffer.getInt()]), mask_transform);
+		}
+		else {
+			long[] bits = new long[buffer.getInt()];
+			align(buffer);
+			buffer.asLongBuffer().get(bits);
+			buffer.position(buffer.position() + bits.length * 8);
+			mask = new LandscapeMask(bits, mask_transform);
+		}
+
+		SuitabilityGrid suitability = null;
+		int suitability_kind = buffer.getInt();
+		if (suitability_kind != ABSENT) {
+			GridTransform suitability_transform = read_transform(buffer);
+			if (suitability_kind == TILED) {
+				suitability = new SuitabilityGrid(TiledRaster.open(tiles[buffer.getInt()]), suitability_transform);
+			}
+			else {
+				float[] values = new float[(int) suitability_transform.size()];
+				align(buffer);
+				buffer.asFloatBuffer().get(values);
+				suitability = new SuitabilityGrid(values, suitability_transform);
+				buffer.position(buffer.position() + values.length * 4);
+			}
+		}
+
+		// absent for a tiled mask, which has no field
+		BarrierField barriers = null;
+		if (buffer.getInt() == ARRAY) {
+			align(buffer);
+			double margin = buffer.getDouble();
+			double min_spacing = buffer.getDouble();
+			float[] distances = new float[(int) mask_transform.size()];
+			buffer.asFloatBuffer().get(distances);
+			barriers = new BarrierField(distances, mask_transform, margin, min_spacing);
+		}
+		return new Landscape(boundary, boundary_area, suitability, mask, barriers);
+	}
+
+	// tile files listed in the header, null when any of them was replaced or changed since
+	private static File[] read_tiles(ByteBuffer buffer) {
+		File[] tiles = new File[buffer.getInt()];
+		boolean current = true;
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = read_file(buffer);
+			long length = buffer.getLong();
+			long modified = buffer.getLong();
+			if (length != tiles[i].length() || modified != tiles[i].lastModified())
+				current = false;
+		}
+		return current ? tiles : null;
+	}
+
+	private static File read_file(ByteBuffer buffer) {
+		byte[] path = new byte[buffer.getInt()];
+		buffer.get(path);
+		return new File(new String(path, StandardCharsets.UTF_8));
+	}
+
+	private static GridTransform read_transform(ByteBuffer buffer) {
+		align(buffer);
+		return new GridTransform(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+				buffer.getInt(), buffer.getInt());
+	}
+
+	/* Writing */
+
+	// written to a temporary file and moved into place, so concurrent runs never read a partial cache
+	public static void write(Landscape landscape, File file) throws IOException {
+		byte[] wkb = new WKBWriter().write(landscape.boundary);
+		long[] bits = landscape.mask.getBits();
+		SuitabilityGrid suitability = landscape.suitability;
+		boolean suitability_tiled = suitability != null && suitability.getTiles() != null;
+		BarrierField barriers = landscape.barriers;
+		List<File> tiles = new ArrayList<File>();
+		if (bits == null)
+			tiles.add(landscape.mask.getTiles().getFile().getAbsoluteFile());
+		if (suitability_tiled)
+			tiles.add(suitability.getTiles().getFile().getAbsoluteFile());
+		List<byte[]> tile_paths = new ArrayList<byte[]>();
+		for (File tile : tiles)
+			tile_paths.add(tile.getPath().getBytes(StandardCharsets.UTF_8));
+
+		// every align() before a transform or an array may skip up to 7 bytes, a transform is 40 bytes
+		long size = 12 + SOURCES.length * 16 + 4;
+		for (byte[] path : tile_paths)
+			size += 4 + path.length + 16;
+		size += 8 + 4 + wkb.length + 4 + 7 + 40 + (bits != null ? 4 + 7 + bits.length * 8L : 4) + 4;
+		if (suitability != null)
+			size += 7 + 40 + (suitability_tiled ? 4 : 7 + suitability.getTransform().size() * 4L);
+		size += 4 + (barriers != null ? 7 + 16 + barriers.getDistances().length * 4L : 0);
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("landscape too large to cache (" + size + " bytes)");
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(SOURCES.length);
+		for (File source : SOURCES)
+			buffer.putLong(source.length()).putLong(source.lastModified());
+		buffer.putInt(tiles.size());
+		for (int i = 0; i < tiles.size(); i++) {
+			buffer.putInt(tile_paths.get(i).length).put(tile_paths.get(i));
+			buffer.putLong(tiles.get(i).length()).putLong(tiles.get(i).lastModified());
+		}
+		buffer.putDouble(landscape.boundary_area);
+		buffer.putInt(wkb.length).put(wkb);
+
+		buffer.putInt(bits != null ? ARRAY : TILED);
+		write_transform(buffer, landscape.mask.getTransform());
+		if (bits != null) {
+			buffer.putInt(bits.length);
+			align(buffer);
+			buffer.asLongBuffer().put(bits);
+			buffer.position(buffer.position() + bits.length * 8);
+		}
+		else {
+			buffer.putInt(0); // the mask's tile file is listed first
+		}
+
+		buffer.putInt(suitability == null ? ABSENT : suitability_tiled ? TILED : ARRAY);
+		if (suitability != null) {
+			write_transform(buffer, suitability.getTransform());
+			if (suitability_tiled) {
+				buffer.putInt(tiles.size() - 1);
+			}
+			else {
+				align(buffer);
+				float[] values = suitability.getValues();
+				buffer.asFloatBuffer().put(values);
+				buffer.position(buffer.position() + values.length * 4);
+			}
+		}
+
+		buffer.putInt(barriers == null ? ABSENT : ARRAY);
+		if (barriers != null) {
+			align(buffer);
+			buffer.putDouble(barriers.margin()).putDouble(barriers.min_spacing());
+			float[] distances = barriers.getDistances();
+			buffer.asFloatBuffer().put(distances);
+			buffer.position(buffer.position() + distances.length * 4);
+		}
+		buffer.flip();
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile("landscape", ".tmp", parent);
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void write_transform(ByteBuffer buffer, GridTransform transform) {
+		align(buffer);
+		buffer.putDouble(transform.origin_x).putDouble(transform.origin_y).putDouble(transform.cell_width)
+				.putDouble(transform.cell_height).putInt(transform.cols).putInt(transform.rows);
+	}
+
+	// skip to the next multiple of 8 so array views start aligned
+	private static void align(ByteBuffer buffer) {
+		buffer.position((buffer.position() + 7) & ~7);
+	}
+
+	/* Checking */
+
+	// write and read back the landscape with its layers in the heap and with them tiled, logging any difference
+	// layers in the heap are copied to tiles in dir for the tiled layout, tiled layers are only checked tiled
+	static boolean check_round_trip(Landscape landscape, File dir) throws IOException, ParseException {
+		boolean passed = true;
+		if (landscape.mask.getTiles() == null)
+			passed &= check_layout("array", landscape, dir);
+		try {
+			passed &= check_layout("tiled", tiled_copy(landscape, dir), dir);
+		} finally {
+			new File(dir, "check-mask.tiles").delete();
+			new File(dir, "check-suitability.tiles").delete();
+		}
+		return passed;
+	}
+
+	private static boolean check_layout(String layout, Landscape landscape, File dir) throws IOException, ParseException {
+		File file = File.createTempFile("landscape-check", ".cache", dir);
+		try {
+			write(landscape, file);
+			String difference = difference(landscape, read(file));
+			if (difference != null)
+				Log.error(Log.SETUP, "Landscape cache round trip (" + layout + " layers) differs: " + difference);
+			else
+				Log.info(Log.SETUP, "Landscape cache round trip (" + layout + " layers) matches.");
+			return difference == null;
+		} finally {
+			file.delete();
+		}
+	}
+
+	// the landscape with its mask and suitability grid in tile files under dir, tiled layers are kept as they are
+	private static Landscape tiled_copy(Landscape landscape, File dir) throws IOException {
+		LandscapeMask mask = landscape.mask;
+		if (mask.getTiles() == null) {
+			int cols = mask.getTransform().getCols();
+			mask = new LandscapeMask(TiledRaster.write(new File(dir, "check-mask.tiles"), cols,
+					mask.getTransform().getRows(), 1, (row, values) -> {
+						for (int col = 0; col < cols; col++)
+							values[col] = landscape.mask.get((long) row * cols + col);
+					}), mask.getTransform());
+		}
+		SuitabilityGrid suitability = landscape.suitability;
+		if (suitability != null && suitability.getTiles() == null) {
+			int cols = suitability.getTransform().getCols();
+			suitability = new SuitabilityGrid(TiledRaster.write(new File(dir, "check-suitability.tiles"), cols,
+					suitability.getTransform().getRows(), 4, (row, values) -> {
+						for (int col = 0; col < cols; col++)
+							values[col] = landscape.suitability.get((long) row * cols + col);
+					}), suitability.getTransform());
+		}
+		return new Landscape(landscape.boundary, landscape.boundary_area, suitability, mask, null);
+	}
+
+	// first difference between a landscape and its cached copy, null when they match
+	private static String difference(Landscape expected, Landscape actual) {
+		if (!expected.boundary.equalsExact(actual.boundary))
+			return "boundary";
+		if (Double.compare(expected.boundary_area, actual.boundary_area) != 0)
+			return "boundary_area";
+		if (!same_transform(expected.mask.getTransform(), actual.mask.getTransform()))
+			return "mask transform";
+		for (long index = 0; index < expected.mask.getTransform().size(); index++) {
+			if (expected.mask.get(index) != actual.mask.get(index))
+				return "mask cell " + index;
+		}
+		if ((expected.suitability == null) != (actual.suitability == null))
+			return "suitability presence";
+		if (expected.suitability != null) {
+			if (!same_transform(expected.suitability.getTransform(), actual.suitability.getTransform()))
+				return "suitability transform";
+			for (long index = 0; index < expected.suitability.getTransform().size(); index++) {
+				if (Float.floatToIntBits(expected.suitability.get(index)) != Float.floatToIntBits(actual.suitability.get(index)))
+					return "suitability cell " + index;
+			}
+		}
+		if ((expected.barriers == null) != (actual.barriers == null))
+			return "barrier presence";
+		if (expected.barriers != null) {
+			if (expected.barriers.margin() != actual.barriers.margin()
+					|| expected.barriers.min_spacing() != actual.barriers.min_spacing())
+				return "barrier margin";
+			float[] expected_distances = expected.barriers.getDistances();
+			float[] actual_distances = actual.barriers.getDistances();
+			if (expected_distances.length != actual_distances.length)
+				return "barrier size";
+			for (int index = 0; index < expected_distances.length; index++) {
+				if (Float.floatToIntBits(expected_distances[index]) != Float.floatToIntBits(actual_distances[index]))
+					return "barrier cell " + index;
+			}
+		}
+		return null;
+	}
+
+	private static boolean same_transform(GridTransform a, GridTransform b) {
+		return a.origin_x == b.origin_x && a.origin_y == b.origin_y && a.cell_width == b.cell_width
+				&& a.cell_height == b.cell_height && a.cols == b.cols && a.rows == b.rows;
+	}
+
+}
@@ -0,0 +1,148 @@
+package kenaiMoose;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+
+public class LandscapeMask {
+
+	/* Bit-packed land/water and inside-boundary mask built once at startup
+	 * 		bits - two bits per cell packed into a long[], INSIDE for the KenaNAD83 boundary raster and
+	 * 		       WATER for NLCD open water / perennial ice (classes 11 and 12)
+	 * 		transform - world-to-pixel transform of the NLCD raster, the finest of the landscape layers
+	 *
+	 * Replaces the per-call "Boundary Raster" and "NLCD Landuse" coverage lookups used by Host agents and
+	 * ContextBuilder when placing agents, so both checks become a bit test on one cell. Grids too large for
+	 * the heap (see TiledRaster.is_large()) keep one byte code per cell in a TiledRaster instead of bits.
+	 */
+
+	public static final int INSIDE = 1;
+	public static final int WATER = 2;
+	public static final int LAND = INSIDE; // cell code for a valid move: inside the boundary and not water
+
+	private final long[] bits;
+	private final TiledRaster tiles; // null when the mask is held in bits
+	private final GridTransform transform;
+
+	public LandscapeMask(long[] bits, GridTransform transform) {
+		this.bits = bits;
+		this.tiles = null;
+		this.transform = transform;
+	}
+
+	public LandscapeMask(TiledRaster tiles, GridTransform transform) {
+		this.bits = null;
+		this.tiles = tiles;
+		this.transform = transform;
+	}
+
+	// build the mask on the NLCD grid, sampling the boundary raster at the center of each NLCD cell
+	// a mask too large for the heap is kept in tile_file, see TiledRaster.tile_file()
+	public static LandscapeMask fromCoverages(GridCoverage2D landuse_coverage, GridCoverage2D boundary_coverage,
+			File tile_file) {
+		GridTransform transform = GridTransform.fromCoverage(landuse_coverage);
+		GridTransform boundary_transform = GridTransform.fromCoverage(boundary_coverage);
+		int cols = transform.getCols();
+		int rows = transform.getRows();
+
+		// boundary raster is coarse enough to decode in full
+		Raster boundary_data = boundary_coverage.getRenderedImage().getData();
+		int[] boundary_values = boundary_data.getSamples(boundary_data.getMinX(), boundary_data.getMinY(),
+				boundary_transform.getCols(), boundary_transform.getRows(), 0, new int[(int) boundary_transform.size()]);
+
+		// landuse raster is read a row at a time to avoid holding a second full copy of it
+		RenderedImage landuse_image = landuse_coverage.getRenderedImage();
+		int[] landuse_row = new int[cols];
+		TiledRaster.RowSource codes = (row, values) -> {
+			int image_y = landuse_image.getMinY() + row;
+			Raster row_data = landuse_image.getData(new Rectangle(landuse_image.getMinX(), image_y, cols, 1));
+			row_data.getSamples(landuse_image.getMinX(), image_y, cols, 1, 0, landuse_row);
+			double y = transform.center_y(row);
+			for (int col = 0; col < cols; col++) {
+				int code = 0;
+				if (landuse_row[col] == 11 || landuse_row[col] == 12)
+					code |= WATER;
+				long boundary_index = boundary_transform.index(transform.center_x(col), y);
+				if (boundary_index >= 0 && boundary_values[(int) boundary_index] == 1)
+					code |= INSIDE;
+				values[col] = code;
+			}
+		};
+
+		if (TiledRaster.is_large(transform.size())) {
+			try {
+				return new LandscapeMask(TiledRaster.open_or_write(tile_file, cols, rows, 1, codes), transform);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to write the landscape mask tiles.", e);
+			}
+		}
+		long[] bits = new long[(int) ((transform.size() * 2 + 63) / 64)];
+		float[] row_codes = new float[cols];
+		for (int row = 0; row < rows; row++) {
+			codes.read(row, row_codes);
+			for (int col = 0; col < cols; col++)
+				set(bits, (long) row * cols + col, (int) row_codes[col]);
+		}
+		return new LandscapeMask(bits, transform);
+	}
+
+	private static void set(long[] bits, long index, int code) {
+		long bit = index * 2;
+		bits[(int) (bit >>> 6)] |= ((long) code) << (bit & 63);
+	}
+
+	public GridTransform getTransform() {
+		return transform;
+	}
+
+	// backing array, for LandscapeCache to write out - not to be modified, null when tiled
+	public long[] getBits() {
+		return bits;
+	}
+
+	// tile store backing the mask, null when held in bits
+	public TiledRaster getTiles() {
+		return tiles;
+	}
+
+	// two bit cell code at a row-major index
+	public int get(long index) {
+		if (tiles != null)
+			return tiles.get_code((int) (index % transform.getCols()), (int) (index / transform.getCols()));
+		long bit = index * 2;
+		return (int) (bits[(int) (bit >>> 6)] >>> (bit & 63)) & 3;
+	}
+
+	// two bit cell code at a world coordinate, 0 (outside and not water) when off the grid
+	public int sample(double x, double y) {
+		if (tiles != null) {
+			int col = transform.col(x);
+			int row = transform.row(y);
+			if (col < 0 || col >= transform.getCols() || row < 0 || row >= transform.getRows())
+				return 0;
+			return tiles.get_code(col, row);
+		}
+		long index = transform.index(x, y);
+		if (index < 0)
+			return 0;
+		return get(index);
+	}
+
+	public boolean is_inside(double x, double y) {
+		return (sample(x, y) & INSIDE) != 0;
+	}
+
+	public boolean is_water(double x, double y) {
+		return (sample(x, y) & WATER) != 0;
+	}
+
+	// inside the boundary and not water, the test used when placing and moving agents
+	public boolean is_land(double x, double y) {
+		return sample(x, y) == LAND;
+	}
+
+}
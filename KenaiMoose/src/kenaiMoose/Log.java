@@ -0,0 +1,187 @@
+package kenaiMoose;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+public class Log {
+
+	/* Leveled console logging for the model, replacing synchronous System.out calls in agent code
+	 * 		levels - most verbose level enabled for each category, set once by configure()
+	 * 		ring - fixed size ring buffer of pending lines, filled by any thread without locking
+	 * 		writer - daemon thread draining the ring to System.out in batches
+	 *
+	 * Callers building a message guard it with enabled() so a disabled level costs one array lookup and no
+	 * string concatenation. Lines keep their order within a thread; producers only wait if the ring is full.
+	 */
+
+	// levels
+	public static final int OFF = -1;
+	public static final int ERROR = 0;
+	public static final int WARN = 1;
+	public static final int INFO = 2;
+	public static final int DEBUG = 3;
+	private static final String[] LEVEL_NAMES = { "ERROR", "WARN", "INFO", "DEBUG" };
+
+	// categories
+	public static final int SETUP = 0; // ContextBuilder loading and agent creation
+	public static final int TICK = 1; // Tick lifecycle events, deaths and egg laying
+	public static final int COORD = 2; // per call coordinate lookups and reporter output
+	private static final String[] CATEGORY_NAMES = { "SETUP", "TICK", "COORD" };
+
+	private static final int[] levels = { INFO, INFO, INFO };
+	private static volatile boolean locked = false; // see lock()
+
+	private static final int CAPACITY = 1 << 16; // power of 2 so sequences map to slots with a mask
+	private static final int MASK = CAPACITY - 1;
+	private static final int BATCH_SIZE = 1 << 13;
+	private static final AtomicReferenceArray<String> ring = new AtomicReferenceArray<String>(CAPACITY);
+	private static final AtomicLong tail = new AtomicLong(); // next sequence claimed by a producer
+	private static volatile long head = 0; // next sequence taken by the writer
+	private static volatile long written = 0; // every sequence below this has reached System.out
+	private static final PrintStream out = System.out;
+	private static final Thread writer;
+
+	static {
+		writer = new Thread(Log::drain, "KenaiMoose log writer");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "KenaiMoose log flush"));
+	}
+
+	/* Configuration */
+
+	// parse a spec such as "INFO" or "INFO,TICK=DEBUG,COORD=OFF", a bare level applies to every category
+	public static void configure(String spec) {
+		if (locked || spec == null || spec.trim().isEmpty())
+			return;
+		for (String part : spec.split(",")) {
+			String[] pair = part.trim().split("=");
+			if (pair.length == 1) {
+				int level = parse_level(pair[0]);
+				for (int category = 0; category < levels.length; category++)
+					levels[category] = level;
+			}
+			else {
+				int category = parse_category(pair[0]);
+				if (category >= 0)
+					levels[category] = parse_level(pair[1]);
+				else
+					warn(SETUP, "Unknown log category: " + pair[0]);
+			}
+		}
+	}
+
+	// configure once and ignore configure() from then on, used by SweepRunner since its runs share this class
+	public static void lock(String spec) {
+		configure(spec);
+		locked = true;
+	}
+
+	public static void setLevel(int category, int level) {
+		levels[category] = level;
+	}
+
+	private static int parse_level(String name) {
+		name = name.trim().toUpperCase();
+		if (name.equals("OFF"))
+			return OFF;
+		for (int level = 0; level < LEVEL_NAMES.length; level++) {
+			if (LEVEL_NAMES[level].equals(name))
+				return level;
+		}
+		warn(SETUP, "Unknown log level: " + name + ", using INFO.");
+		return INFO;
+	}
+
+	private static int parse_category(String name) {
+		name = name.trim().toUpperCase();
+		for (int category = 0; category < CATEGORY_NAMES.length; category++) {
+			if (CATEGORY_NAMES[category].equals(name))
+				return category;
+		}
+		return -1;
+	}
+
+	/* Logging */
+
+	// guard for call sites that build their message, a disabled level skips the concatenation entirely
+	public static boolean enabled(int category, int level) {
+		return level <= levels[category];
+	}
+
+	public static void error(int category, String message) {
+		log(category, ERROR, message);
+	}
+
+	public static void warn(int category, String message) {
+		log(category, WARN, message);
+	}
+
+	public static void info(int category, String message) {
+		log(category, INFO, message);
+	}
+
+	public static void debug(int category, String message) {
+		log(category, DEBUG, message);
+	}
+
+	public static void log(int category, int level, String message) {
+		if (level > levels[category])
+			return;
+		// claim a sequence, waiting for the writer only when the ring is full
+		long seq;
+		while (true) {
+			seq = tail.get();
+			if (seq - head >= CAPACITY) {
+				LockSupport.unpark(writer);
+				Thread.yield();
+				continue;
+			}
+			if (tail.compareAndSet(seq, seq + 1))
+				break;
+		}
+		ring.set((int) seq & MASK, message);
+	}
+
+	// block until every line logged so far has been written, used at shutdown and the end of batch runs
+	public static void flush() {
+		long target = tail.get();
+		long deadline = System.nanoTime() + 5000000000L; // don't hang shutdown on a stuck writer
+		while (written < target && System.nanoTime() < deadline) {
+			LockSupport.unpark(writer);
+			Thread.yield();
+		}
+	}
+
+	/* Writer */
+
+	// single consumer loop, a claimed slot that is still empty means its producer hasn't stored the line yet
+	private static void drain() {
+		StringBuilder batch = new StringBuilder(BATCH_SIZE * 2);
+		long next = 0;
+		while (true) {
+			String line = ring.get((int) next & MASK);
+			if (line != null) {
+				ring.set((int) next & MASK, null);
+				next++;
+				head = next;
+				batch.append(line).append(System.lineSeparator());
+				if (batch.length() < BATCH_SIZE)
+					continue;
+			}
+			if (batch.length() > 0) {
+				out.print(batch);
+				out.flush();
+				batch.setLength(0);
+				written = next;
+			}
+			else if (line == null) {
+				written = next;
+				LockSupport.parkNanos(1000000L);
+			}
+		}
+	}
+
+}
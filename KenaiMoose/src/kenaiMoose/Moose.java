@@ -1,22 +1,13 @@
 package kenaiMoose;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
-
-import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.geometry.DirectPosition2D;
-import org.opengis.coverage.PointOutsideCoverageException;
-import org.opengis.geometry.DirectPosition;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
 
-import repast.simphony.engine.schedule.ScheduleParameters;
 import repast.simphony.engine.schedule.ScheduledMethod;
 import repast.simphony.gis.util.GeometryUtil;
 
@@ -24,6 +15,12 @@ public class Moose extends Host {
 	private double direction; // The mean direction for drawing Gaussian randoms
 	protected static int travel_dist_meters = 1000; // travel distance in meters per day
 	private Geometry infection_path;
+	// endpoints of the path swept during the last walk(), used for the tick encounter test
+	private double path_start_x;
+	private double path_start_y;
+	private double path_end_x;
+	private double path_end_y;
+	private boolean left_boundary; // set when a walk reaches the boundary, planar walks kill ticks in commit_walk()
 
 	public Moose(String name) {
 		super(name);
@@ -38,28 +35,19 @@ public class Moose extends Host {
 		super.init();		
 		addBuffer(infection_radius);
 		
-		Random random = new Random();
 		direction = Math.toRadians(random.nextInt(360)); // Assign random direction for travel
 	}
 
-	// Moose actions every tick should be prioritized for adult Tick attachment behavior
-	@ScheduledMethod(start = 1, interval = 1, priority = ScheduleParameters.FIRST_PRIORITY)
-	public void step() {
-		walk();
-		List<Tick> tickList = getTicks();
-		processInfections(tickList);
+	// Moose are stepped by the HostScheduler ahead of Ticks, prioritized for adult Tick attachment behavior
+	@Override
+	protected void attach_population() {
+		tick_population.attach_corridor(this, path_start_x, path_start_y, path_end_x, path_end_y, infection_radius);
+		updateInfected();
 	}
 	
-	// Directional walk, Moose will move along a loose vector trajectory
-	protected void walk() {
-		
-		// Saving previous Coordinate and Point for reference in case of invalid move
-		Coordinate prev_coord = getCoord();
-		Point prev_point = getPoint();
-		
-		// Adding random wiggle
-		Random random = new Random(); 
-		direction = random.nextGaussian() * (Math.PI / 24) + direction; // Std. dev. of PI/24 and mean of current direction
+	// Adding random wiggle to the current direction of travel
+	private void wiggle() {
+		direction = gaussian() * (Math.PI / 24) + direction; // Std. dev. of PI/24 and mean of current direction
 		// Controlling for direction > 360º and < 0º
 		if (direction > 2 * Math.PI) {
 			direction = direction - (2 * Math.PI);
@@ -67,6 +55,34 @@ public class Moose extends Host {
 		if (direction < 0) {
 			direction = direction + (2 * Math.PI);
 		}
+	}
+	
+	// Turning around after an invalid move
+	private void reverse() {
+		if (direction < Math.PI) {
+			direction = direction + Math.PI;
+		}
+		else {
+			direction = direction - Math.PI;
+		}
+	}
+	
+	// Directional walk, Moose will move along a loose vector trajectory
+	protected void walk() {
+		if (barrier_field != null) {
+			walk_traced();
+			return;
+		}
+		if (planar) {
+			walk_planar();
+			return;
+		}
+		
+		// Saving previous Coordinate and Point for reference in case of invalid move
+		Coordinate prev_coord = getCoord();
+		Point prev_point = getPoint();
+		
+		wiggle();
 		
 		// Moving Moose and getting test_coord and test_point for checking validity of move
 		geography.moveByVector(this, travel_dist_meters, direction);
@@ -79,8 +95,7 @@ public class Moose extends Host {
 			//System.out.println("Boundary adjustment: " + this.name);
 			geography.move(this, prev_point); // moving back to start
 			//System.out.println("\tCurrent Point: " + getPoint().toString());
-			ArrayList<Tick> tick_list_copy = tick_list;
-			removeTicks(tick_list_copy);
+			removeTicks();
 			//System.out.println("\tTicks detached and deleted.");
 			if (direction < Math.PI) {
 				direction = direction + Math.PI;
@@ -102,35 +117,27 @@ public class Moose extends Host {
 		*/
 
 		
-		if (!within_bound(test_coord)) {
+		// boundary and water checks share a single lookup into the landscape mask
+		int cell = landscape_mask.sample(test_coord.x, test_coord.y);
+		if ((cell & LandscapeMask.INSIDE) == 0) {
 			geography.move(this, prev_point); // moving back to start
-			ArrayList<Tick> tick_list_copy = tick_list;
-			removeTicks(tick_list_copy);
+			killTicks();
 			//System.out.println("\tTicks detached and deleted.");
-			if (direction < Math.PI) {
-				direction = direction + Math.PI;
-			}
-			else {
-				direction = direction - Math.PI;
-			}
+			reverse();
 			// TODO: determine distance between prev_coord and boundary to get more accurate bounce behavior
 			//		 currently arbitrarily half of previous attempt to move that placed us out of bounds
 			geography.moveByVector(this, travel_dist_meters / 2, direction); 
 			test_coord = getCoord();
 			test_point = getPoint();
+			cell = landscape_mask.sample(test_coord.x, test_coord.y);
 		}
 		
 		
-		if (isWater(test_coord)) {
+		if ((cell & LandscapeMask.WATER) != 0) {
 			//System.out.println("Water adjustment: " + this.name);
 			geography.move(this,  prev_point);
 			//System.out.println("\tCurrent Point: " + getPoint().toString());
-			if (direction < Math.PI) {
-				direction = direction + Math.PI;
-			}
-			else {
-				direction = direction - Math.PI;
-			}
+			reverse();
 			geography.moveByVector(this, travel_dist_meters / 2, direction);
 			test_coord = getCoord();
 			test_point = getPoint();
@@ -142,34 +149,195 @@ public class Moose extends Host {
 		}
 		
 		geography.move(this, test_point);
-		updateInfectionZone(prev_point, test_point);
+		path_start_x = x;
+		path_start_y = y;
+		update_planar();
+		path_end_x = x;
+		path_end_y = y;
+		// buffered path is only needed to draw the InfectionZone
+		if (display)
+			updateInfectionZone(prev_point, test_point);
 	}
 	
-	// wrapper method for determining if passed Coordinate is within the boundary raster
-	private boolean within_bound(Coordinate coord) {
-		GridCoverage2D boundary_coverage = geography.getCoverage("Boundary Raster");
-		DirectPosition position = new DirectPosition2D(geography.getCRS(), coord.x, coord.y);
-	try {
-		byte[] sample = (byte[]) boundary_coverage.evaluate(position);
-		if (sample[0] == (byte) 1) return true;
-		return false;
-	} catch (PointOutsideCoverageException e) {
-		e.printStackTrace();
-		return false;
+	// Planar version of walk(), the same trajectory and bounce rules applied with plain arithmetic in
+	// EPSG:3338 metres, the Geography is only updated when there is a display to draw the Moose
+	private void walk_planar() {
+		double prev_x = x;
+		double prev_y = y;
+		
+		wiggle();
+		double test_x = prev_x + travel_dist_meters * Math.cos(direction);
+		double test_y = prev_y + travel_dist_meters * Math.sin(direction);
+		
+		int cell = sample_mask(test_x, test_y);
+		if ((cell & LandscapeMask.INSIDE) == 0) {
+			left_boundary = true;
+			reverse();
+			test_x = prev_x + (travel_dist_meters / 2) * Math.cos(direction);
+			test_y = prev_y + (travel_dist_meters / 2) * Math.sin(direction);
+			cell = sample_mask(test_x, test_y);
+		}
+		if ((cell & LandscapeMask.WATER) != 0) {
+			reverse();
+			test_x = prev_x + (travel_dist_meters / 2) * Math.cos(direction);
+			test_y = prev_y + (travel_dist_meters / 2) * Math.sin(direction);
+		}
+		
+		x = test_x;
+		y = test_y;
+		path_start_x = prev_x;
+		path_start_y = prev_y;
+		path_end_x = x;
+		path_end_y = y;
 	}
 	
+	// Walk traced through the barrier field in EPSG:3338 metres, used in both movement modes when the field is
+	// available: the move stops where it meets water or the boundary and the rest of it is reflected off the
+	// barrier, so however the Moose bounces there is one position update
+	private void walk_traced() {
+		double prev_x = x;
+		double prev_y = y;
+		
+		wiggle();
+		trace(prev_x, prev_y, travel_dist_meters);
+		path_start_x = prev_x;
+		path_start_y = prev_y;
+		path_end_x = x;
+		path_end_y = y;
+		if (planar)
+			return; // the Geography and ticks are handled in commit_walk()
+		
+		Point prev_point = getPoint();
+		geography.move(this, geoFac.createPoint(AlaskaAlbers.EPSG_3338.toCoordinate(x, y)));
+		if (left_boundary) {
+			killTicks();
+			left_boundary = false;
+		}
+		if (display)
+			updateInfectionZone(prev_point, getPoint());
 	}
 	
-	// processes all Tick agents in a list and removes them in a manner safe for multithreading
-	protected void removeTicks(ArrayList<Tick> ticks) {
-			for (Iterator<Tick> iter = (Iterator)ticks.iterator(); iter.hasNext(); ) {
-				Tick tick = (Tick)iter.next();
-				if (tick.getHost() == this) {
-					iter.remove();
-					tick.detach();
-					tick.die();
+	// Move from (start_x, start_y) by length metres along direction, writing the end point to x, y
+	// Steps are as long as the barrier field allows, a step onto water or out of the boundary is refined
+	// back to the barrier edge and the remainder reflected once off the barrier normal (the field gradient)
+	private void trace(double start_x, double start_y, double length) {
+		double px = start_x;
+		double py = start_y;
+		double min_step = barrier_field.min_spacing() / 2;
+		
+		// a Moose that starts in a barrier heads for the nearest land instead
+		double start_distance = field(px, py);
+		if (start_distance < 0) {
+			double[] normal = barrier_normal(px, py);
+			if (normal != null)
+				direction = angle(normal[0], normal[1]);
+			double move = Math.min(length, barrier_field.margin() - start_distance);
+			x = px + move * Math.cos(direction);
+			y = py + move * Math.sin(direction);
+			return;
+		}
+		
+		boolean reflected = false;
+		while (length > 0) {
+			double dx = Math.cos(direction);
+			double dy = Math.sin(direction);
+			double safe = 0;
+			double hit = -1;
+			while (safe < length) {
+				double clear = field(px + safe * dx, py + safe * dy) - barrier_field.margin();
+				double next = Math.min(length, safe + Math.max(clear, min_step));
+				if (sample_mask(px + next * dx, py + next * dy) != LandscapeMask.LAND) {
+					hit = next;
+					break;
 				}
+				safe = next;
 			}
+			if (hit < 0) {
+				px += length * dx;
+				py += length * dy;
+				break;
+			}
+			
+			// bisect to within a few metres of the barrier edge
+			while (hit - safe > 5) {
+				double mid = (safe + hit) / 2;
+				if (sample_mask(px + mid * dx, py + mid * dy) == LandscapeMask.LAND)
+					safe = mid;
+				else
+					hit = mid;
+			}
+			if ((sample_mask(px + hit * dx, py + hit * dy) & LandscapeMask.INSIDE) == 0)
+				left_boundary = true; // ticks are killed for reaching the boundary, as before
+			px += safe * dx;
+			py += safe * dy;
+			length -= safe;
+			if (reflected)
+				break; // a second barrier in one step stops the Moose at its edge
+			reflected = true;
+			
+			double[] normal = barrier_normal(px, py);
+			double dot = normal == null ? 0 : dx * normal[0] + dy * normal[1];
+			if (dot < 0)
+				direction = angle(dx - 2 * dot * normal[0], dy - 2 * dot * normal[1]);
+			else
+				reverse(); // no usable normal, turn around as the trial moves did
+		}
+		x = px;
+		y = py;
+	}
+	
+	// signed distance to the nearest barrier at a position in EPSG:3338 metres
+	private double field(double px, double py) {
+		AlaskaAlbers.EPSG_3338.unproject(px, py, xy);
+		return barrier_field.distance(xy[0], xy[1]);
+	}
+	
+	// unit vector pointing away from the nearest barrier, from central differences of the field, or null if flat
+	private double[] barrier_normal(double px, double py) {
+		double h = barrier_field.min_spacing();
+		double gx = field(px + h, py) - field(px - h, py);
+		double gy = field(px, py + h) - field(px, py - h);
+		double norm = Math.sqrt(gx * gx + gy * gy);
+		if (norm == 0 || Double.isNaN(norm))
+			return null;
+		return new double[] { gx / norm, gy / norm };
+	}
+	
+	// direction of a vector in [0, 2 PI)
+	private static double angle(double vx, double vy) {
+		double angle = Math.atan2(vy, vx);
+		return angle < 0 ? angle + 2 * Math.PI : angle;
+	}
+	
+	// serial part of the planar walk, the geographic walk already did this work as it moved
+	@Override
+	protected void commit_walk() {
+		if (!planar)
+			return;
+		if (left_boundary) {
+			killTicks();
+			left_boundary = false;
+		}
+		if (display) {
+			Point prev_point = geoFac.createPoint(AlaskaAlbers.EPSG_3338.toCoordinate(path_start_x, path_start_y));
+			sync_geography();
+			updateInfectionZone(prev_point, (Point) geography.getGeometry(this));
+		}
+	}
+	
+	// detaches and kills every Tick riding this Moose after it leaves the boundary
+	private void killTicks() {
+		if (tick_population != null)
+			tick_population.kill_attached(population_id);
+		else
+			removeTicks();
+	}
+	
+	// detaches every Tick in the burden at once and queues them to die with the rest of this step's deaths
+	protected void removeTicks() {
+		List<Tick> removed = new ArrayList<Tick>(burden.size());
+		clear_burden(removed);
+		Tick.scheduler.queue_deaths(removed);
 	}
 	
 	// overloaded method for updating infection zone for pathing visualization
@@ -181,17 +349,11 @@ public class Moose extends Host {
 	}
 	
 	// overriding the Host getTicks() method to act over the infection path instead of just a single buffered circle
+	// Ticks are tested by exact distance to the swept segment rather than the envelope of the buffered path
 	@Override
 	protected List<Tick> getTicks() {
-		Envelope infection_area = infection_path.getEnvelopeInternal();
-		Iterable<Tick> infectingTicks = geography.getObjectsWithin(infection_area, IxPacificus.class);
-		List<Tick> tickList = new ArrayList();
-		
-		for (Tick tick : infectingTicks) {
-			if(!tick.isAttached()) {
-				tickList.add((Tick)tick);
-			}
-		}
+		List<Tick> tickList = new ArrayList<Tick>();
+		Tick.tick_index.query_corridor(path_start_x, path_start_y, path_end_x, path_end_y, infection_radius, tickList);
 		return tickList;
 	}
 	
@@ -0,0 +1,168 @@
+package kenaiMoose;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.function.LongToDoubleFunction;
+
+public class MortalityGroups {
+
+	/* Membership of ticks in (suitability raster cell, life stage) groups for the habitat mortality draws
+	 * 		group_of, slot_of - per member id: its group and its position in that group, -1 when not grouped
+	 * 		members, counts - per group: the ids of its members, unordered
+	 * 		cells, stages - per group: the key it holds
+	 * 		lookup - group of each (cell, stage) key that has members
+	 * 		free_groups - groups emptied since, reused before new ones are added
+	 *
+	 * Member ids are chosen by the caller, TickScheduler registry slots or TickPopulation slots. Every member
+	 * of a group has the same probability of death, so the number of deaths in a group is one binomial draw
+	 * and the victims are a uniform sample of its members, which is distributed the same as one uniform draw
+	 * per tick. The caller keeps membership current as ticks are born, die, change stage or change cell, so a
+	 * draw costs a pass over the groups rather than a pass over the population.
+	 */
+
+	private int[] group_of = new int[0];
+	private int[] slot_of = new int[0];
+
+	private int[][] members = new int[16][];
+	private int[] counts = new int[16];
+	private long[] cells = new long[16];
+	private int[] stages = new int[16];
+	private int group_high; // groups [0, group_high) have been used at least once
+	private int[] free_groups = new int[16];
+	private int free_count;
+	private final HashMap<Long, Integer> lookup = new HashMap<Long, Integer>();
+
+	private static long key(long cell, int stage) {
+		return (cell << 3) | stage;
+	}
+
+	private void ensure_member(int id) {
+		if (id < group_of.length)
+			return;
+		int old_length = group_of.length;
+		int new_length = Math.max(id + 1, Math.max(1024, old_length * 2));
+		group_of = Arrays.copyOf(group_of, new_length);
+		slot_of = Arrays.copyOf(slot_of, new_length);
+		Arrays.fill(group_of, old_length, new_length, -1);
+		Arrays.fill(slot_of, old_length, new_length, -1);
+	}
+
+	// group holding a key, taking a free group or adding one when the key has no members yet
+	private int group(long cell, int stage) {
+		Integer found = lookup.get(key(cell, stage));
+		if (found != null)
+			return found;
+		int group;
+		if (free_count > 0) {
+			group = free_groups[--free_count];
+		}
+		else {
+			group = group_high++;
+			if (group == counts.length) {
+				int new_length = group * 2;
+				members = Arrays.copyOf(members, new_length);
+				counts = Arrays.copyOf(counts, new_length);
+				cells = Arrays.copyOf(cells, new_length);
+				stages = Arrays.copyOf(stages, new_length);
+			}
+			members[group] = new int[8];
+		}
+		cells[group] = cell;
+		stages[group] = stage;
+		lookup.put(key(cell, stage), group);
+		return group;
+	}
+
+	// put a member in the group of a cell and stage, moving it out of its current group if that differs
+	public void set(int id, long cell, int stage) {
+		ensure_member(id);
+		int current = group_of[id];
+		if (current >= 0) {
+			if (cells[current] == cell && stages[current] == stage)
+				return;
+			remove(id);
+		}
+		int group = group(cell, stage);
+		int count = counts[group];
+		if (count == members[group].length)
+			members[group] = Arrays.copyOf(members[group], count * 2);
+		members[group][count] = id;
+		group_of[id] = group;
+		slot_of[id] = count;
+		counts[group] = count + 1;
+	}
+
+	public void remove(int id) {
+		if (id >= group_of.length || group_of[id] < 0)
+			return;
+		int group = group_of[id];
+		int slot = slot_of[id];
+		int last = --counts[group];
+		if (slot != last) {
+			int moved = members[group][last];
+			members[group][slot] = moved;
+			slot_of[moved] = slot;
+		}
+		group_of[id] = -1;
+		slot_of[id] = -1;
+		if (last == 0) {
+			lookup.remove(key(cells[group], stages[group]));
+			if (free_count == free_groups.length)
+				free_groups = Arrays.copyOf(free_groups, free_count * 2);
+			free_groups[free_count++] = group;
+		}
+	}
+
+	// the member with id from now has id to, for callers that swap-remove their own registry
+	public void rename(int from, int to) {
+		if (from >= group_of.length || group_of[from] < 0)
+			return;
+		ensure_member(to);
+		int group = group_of[from];
+		int slot = slot_of[from];
+		members[group][slot] = to;
+		group_of[to] = group;
+		slot_of[to] = slot;
+		group_of[from] = -1;
+		slot_of[from] = -1;
+	}
+
+	// cell of a member's group, -1 when it isn't grouped
+	public long cell(int id) {
+		if (id >= group_of.length || group_of[id] < 0)
+			return -1;
+		return cells[group_of[id]];
+	}
+
+	// ids of the members dying over days, habitat gives the suitability of a cell
+	// membership is left unchanged, the caller removes the victims as it kills them
+	public int[] draw_deaths(int days, LongToDoubleFunction habitat, SplittableRandom random) {
+		int[] victims = new int[16];
+		int victim_count = 0;
+		for (int group = 0; group < group_high; group++) {
+			int n = counts[group];
+			if (n == 0)
+				continue;
+			double prob_death_per_day = (1 - habitat.applyAsDouble(cells[group])) / 365;
+			int deaths = Binomial.draw(n, prob_death_per_day * days, random);
+			if (deaths == 0)
+				continue;
+			if (victim_count + deaths > victims.length)
+				victims = Arrays.copyOf(victims, Math.max(victim_count + deaths, victims.length * 2));
+			// partial Fisher-Yates shuffle picks the victims from the group
+			int[] ids = members[group];
+			for (int k = 0; k < deaths; k++) {
+				int pick = k + random.nextInt(n - k);
+				int swap = ids[k];
+				ids[k] = ids[pick];
+				ids[pick] = swap;
+				slot_of[ids[k]] = k;
+				slot_of[ids[pick]] = pick;
+				victims[victim_count++] = ids[k];
+			}
+		}
+		return Arrays.copyOf(victims, victim_count);
+	}
+
+}
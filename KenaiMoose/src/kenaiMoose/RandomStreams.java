@@ -0,0 +1,42 @@
+package kenaiMoose;
+
+import java.util.SplittableRandom;
+
+public class RandomStreams {
+
+	/* Per-agent random number streams derived from the run's randomSeed parameter
+	 * 		seed - run seed, set once by ContextBuilder before any agent is created
+	 *
+	 * Each agent or cohort owns a SplittableRandom seeded from the run seed and a hash of its unique name, so
+	 * an agent draws the same sequence whatever order agents are stepped in or which thread steps them, and a
+	 * run can be replayed exactly from its randomSeed. Streams are not shared, so there is no contention.
+	 */
+
+	private static long seed = 0;
+
+	public static void setSeed(long run_seed) {
+		seed = run_seed;
+	}
+
+	public static long getSeed() {
+		return seed;
+	}
+
+	// independent stream for an agent identified by a name that is unique within the run
+	public static SplittableRandom stream(String key) {
+		// 64-bit FNV-1a over the name, then a SplitMix64 finalizer over the name hash and seed combined
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return new SplittableRandom(mix(hash ^ mix(seed)));
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
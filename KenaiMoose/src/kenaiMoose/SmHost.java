@@ -6,16 +6,19 @@ import java.util.List;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.Point;
 
-import repast.simphony.engine.schedule.ScheduleParameters;
 import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.gis.util.GeometryUtil;
-import repast.simphony.random.RandomHelper;
 
 public class SmHost extends Host {
 	private double smHost_range;
 	Geometry smHost_home;
+	private double home_x; // center of the home range in EPSG:3338 metres
+	private double home_y;
+	// landscape mask cells on land and inside the boundary whose centers lie in the home range, found once in init()
+	// edge cells straddle the boundary, so a point jittered in one is checked against the prepared boundary
+	private long[] home_cells;
+	private boolean[] home_edge;
+	private int home_range_id = -1; // registered with the TickIndex, which tracks the ticks in the home range
 	
 	
 	public SmHost(String name) {
@@ -28,44 +31,123 @@ public class SmHost extends Host {
 	public void init() {
 		super.init(); 
 		smHost_home = addBuffer(smHost_range); //create buffer for limiting agent movement
+		home_x = x;
+		home_y = y;
+		find_home_cells();
+		if (Tick.tick_index != null)
+			home_range_id = Tick.tick_index.register_home_range(home_x - smHost_range, home_y - smHost_range,
+					home_x + smHost_range, home_y + smHost_range);
+	}
 	
+	// precompute the valid cells of the home range so a walk is one draw with no retries
+	private void find_home_cells() {
+		GridTransform transform = landscape_mask.getTransform();
+		Envelope home = smHost_home.getEnvelopeInternal();
+		int min_col = Math.max(0, transform.col(home.getMinX()));
+		int max_col = Math.min(transform.getCols() - 1, transform.col(home.getMaxX()));
+		int min_row = Math.max(0, transform.row(home.getMaxY()));
+		int max_row = Math.min(transform.getRows() - 1, transform.row(home.getMinY()));
+		List<Long> cells = new ArrayList<Long>();
+		List<Boolean> edges = new ArrayList<Boolean>();
+		double half_width = transform.cell_width / 2;
+		double half_height = transform.cell_height / 2;
+		for (int row = min_row; row <= max_row; row++) {
+			for (int col = min_col; col <= max_col; col++) {
+				long index = (long) row * transform.getCols() + col;
+				if (landscape_mask.get(index) != LandscapeMask.LAND)
+					continue;
+				double lon = transform.center_x(col);
+				double lat = transform.center_y(row);
+				AlaskaAlbers.EPSG_3338.project(lon, lat, xy);
+				double dx = xy[0] - home_x;
+				double dy = xy[1] - home_y;
+				if (dx * dx + dy * dy > smHost_range * smHost_range)
+					continue;
+				// the mask's boundary bit comes from a coarser raster, the prepared polygon decides
+				Geometry cell = geoFac.toGeometry(new Envelope(lon - half_width, lon + half_width, lat - half_height, lat + half_height));
+				if (prepared_boundary.containsProperly(cell)) {
+					cells.add(index);
+					edges.add(false);
+				}
+				else if (prepared_boundary.contains(geoFac.createPoint(new Coordinate(lon, lat)))) {
+					cells.add(index);
+					edges.add(true);
+				}
+			}
+		}
+		home_cells = new long[cells.size()];
+		home_edge = new boolean[cells.size()];
+		for (int i = 0; i < home_cells.length; i++) {
+			home_cells[i] = cells.get(i);
+			home_edge[i] = edges.get(i);
+		}
+		if (home_cells.length == 0)
+			Log.warn(Log.SETUP, name + " has no land inside the boundary in its home range and will stay put.");
 	}
 	
-	@ScheduledMethod(start=1, interval=1, priority = ScheduleParameters.LAST_PRIORITY)
-	public void step() {
-		walk();
-		List<Tick> tickList = getTicks(); //use overridden method below
-		processInfections(tickList); 
-		
+	// a valid NAD83 position in the home range, written to lonlat: a random home cell jittered within the cell
+	// a jittered point that falls outside the boundary in an edge cell is pulled back to the cell center
+	private void draw_home(double[] lonlat) {
+		if (home_cells.length == 0) {
+			AlaskaAlbers.EPSG_3338.unproject(home_x, home_y, lonlat);
+			return;
+		}
+		GridTransform transform = landscape_mask.getTransform();
+		int slot = random.nextInt(home_cells.length);
+		int col = (int) (home_cells[slot] % transform.getCols());
+		int row = (int) (home_cells[slot] / transform.getCols());
+		double lon = transform.center_x(col) + (random.nextDouble() - 0.5) * transform.cell_width;
+		double lat = transform.center_y(row) + (random.nextDouble() - 0.5) * transform.cell_height;
+		if (home_edge[slot] && !prepared_boundary.contains(geoFac.createPoint(new Coordinate(lon, lat)))) {
+			lon = transform.center_x(col);
+			lat = transform.center_y(row);
+		}
+		lonlat[0] = lon;
+		lonlat[1] = lat;
+	}
+	
+	// SmHosts are stepped by the HostScheduler after Ticks
+	@Override
+	protected void attach_population() {
+		tick_population.attach_box(this, home_x - smHost_range, home_y - smHost_range, home_x + smHost_range, home_y + smHost_range);
+		updateInfected();
 	}
 
 	@Override
 	//SmHost needs it's own method here b/c the parent class method moves the geometry and we don't want it to move
 	protected List<Tick> getTicks(){
-		Envelope infection_envelope = smHost_home.getEnvelopeInternal();
-		
-		Iterable<Tick> infectingTicks = geography.getObjectsWithin(infection_envelope, IxPacificus.class);
-		List<Tick> tickList = new ArrayList();
-		
-		for (Tick tick : infectingTicks) {
-			if(!tick.isAttached()) {
-				tickList.add((Tick)tick);
-			}
-		}
+		List<Tick> tickList = new ArrayList<Tick>();
+		if (home_range_id >= 0)
+			Tick.tick_index.query_home_range(home_range_id, tickList);
+		else
+			Tick.tick_index.query(home_x - smHost_range, home_y - smHost_range, home_x + smHost_range, home_y + smHost_range, tickList);
 		return tickList;
 	}
 	
 	protected void walk() {
-		Coordinate coord;
-		Point pt;
-		//Generate a point within the agents home range and check if it's a valid move
-		do {
-			List<Coordinate> test_coords = GeometryUtil.generateRandomPointsInPolygon(smHost_home, 1);
-			coord = test_coords.get(0);
-			pt = geoFac.createPoint(coord); //Create a point based off the coordinate so we can check boundary 
-		} while (isWater(coord) || !pt.within(boundary));
-		
-		geography.move(this, pt);	//move agent
+		if (planar) {
+			walk_planar();
+			return;
+		}
+		//Draw a valid point within the agents home range from its precomputed cells
+		double[] lonlat = new double[2];
+		draw_home(lonlat);
+		geography.move(this, geoFac.createPoint(new Coordinate(lonlat[0], lonlat[1])));	//move agent
+		update_planar();
+	}
+	
+	// Planar version of walk(), the same draw kept in EPSG:3338 metres
+	private void walk_planar() {
+		draw_home(xy);
+		AlaskaAlbers.EPSG_3338.project(xy[0], xy[1], xy);
+		x = xy[0];
+		y = xy[1];
+	}
+	
+	@Override
+	protected void commit_walk() {
+		if (planar && display)
+			sync_geography();
 	}
 
 }
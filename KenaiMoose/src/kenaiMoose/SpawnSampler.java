@@ -0,0 +1,138 @@
+package kenaiMoose;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class SpawnSampler {
+
+	/* Precomputed index of valid land cells for placing agents, replacing rejection sampling in the boundary
+	 * 		cells - row-major LandscapeMask indexes of every cell inside the boundary and not water
+	 * 		probability, alias - Vose alias table over cells, null when every cell is equally likely
+	 * 		transform - the mask's grid, for turning a cell back into world coordinates
+	 *
+	 * A sample picks a cell in O(1), uniformly or in proportion to a weight such as habitat suitability, then
+	 * jitters uniformly within that cell. Every sampled point is on land, so no retries are needed.
+	 */
+
+	private final long[] cells;
+	private final float[] probability;
+	private final int[] alias;
+	private final GridTransform transform;
+
+	private SpawnSampler(long[] cells, float[] probability, int[] alias, GridTransform transform) {
+		this.cells = cells;
+		this.probability = probability;
+		this.alias = alias;
+		this.transform = transform;
+	}
+
+	// every land cell of the mask, weighted by the suitability at its center when a grid is given
+	public static SpawnSampler build(LandscapeMask mask, SuitabilityGrid weights) {
+		GridTransform transform = mask.getTransform();
+		int cols = transform.getCols();
+		long size = transform.size();
+		long count = 0;
+		for (long index = 0; index < size; index++) {
+			if (mask.get(index) == LandscapeMask.LAND)
+				count++;
+		}
+		if (count > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException("Landscape mask has too many land cells (" + count + ") to index for spawning.");
+		long[] cells = new long[(int) count];
+		int slot = 0;
+		for (long index = 0; index < size; index++) {
+			if (mask.get(index) == LandscapeMask.LAND)
+				cells[slot++] = index;
+		}
+		if (cells.length == 0)
+			throw new IllegalStateException("Landscape mask has no land cells inside the boundary to spawn agents in.");
+		if (weights == null)
+			return new SpawnSampler(cells, null, null, transform);
+
+		// cells outside the suitability raster or without a positive value are never picked
+		double[] weight = new double[cells.length];
+		double total = 0;
+		GridTransform weight_transform = weights.getTransform();
+		for (int i = 0; i < cells.length; i++) {
+			long weight_index = weight_transform.index(transform.center_x((int) (cells[i] % cols)),
+					transform.center_y((int) (cells[i] / cols)));
+			double w = weight_index < 0 ? 0 : weights.get(weight_index);
+			weight[i] = w > 0 ? w : 0; // also drops NaN no-data values
+			total += weight[i];
+		}
+		if (total <= 0) {
+			Log.warn(Log.SETUP, "No land cell has a positive spawn weight, spawning uniformly instead.");
+			return new SpawnSampler(cells, null, null, transform);
+		}
+		float[] probability = new float[cells.length];
+		int[] alias = new int[cells.length];
+		build_alias(weight, total, probability, alias);
+		return new SpawnSampler(cells, probability, alias, transform);
+	}
+
+	// Vose's alias method, each slot keeps its own cell with probability[i] and otherwise gives alias[i]
+	private static void build_alias(double[] weight, double total, float[] probability, int[] alias) {
+		int n = weight.length;
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int small_count = 0;
+		int large_count = 0;
+		for (int i = 0; i < n; i++) {
+			scaled[i] = weight[i] * n / total;
+			if (scaled[i] < 1)
+				small[small_count++] = i;
+			else
+				large[large_count++] = i;
+		}
+		while (small_count > 0 && large_count > 0) {
+			int less = small[--small_count];
+			int more = large[--large_count];
+			probability[less] = (float) scaled[less];
+			alias[less] = more;
+			scaled[more] = (scaled[more] + scaled[less]) - 1;
+			if (scaled[more] < 1)
+				small[small_count++] = more;
+			else
+				large[large_count++] = more;
+		}
+		// whatever is left is 1 up to rounding
+		while (large_count > 0) {
+			int i = large[--large_count];
+			probability[i] = 1;
+			alias[i] = i;
+		}
+		while (small_count > 0) {
+			int i = small[--small_count];
+			probability[i] = 1;
+			alias[i] = i;
+		}
+	}
+
+	public int size() {
+		return cells.length;
+	}
+
+	// a point on land, jittered uniformly within the picked cell
+	public Coordinate sample(SplittableRandom random) {
+		int slot = random.nextInt(cells.length);
+		if (probability != null && random.nextDouble() >= probability[slot])
+			slot = alias[slot];
+		long cell = cells[slot];
+		int cols = transform.getCols();
+		double x = transform.center_x((int) (cell % cols)) + (random.nextDouble() - 0.5) * transform.cell_width;
+		double y = transform.center_y((int) (cell / cols)) + (random.nextDouble() - 0.5) * transform.cell_height;
+		return new Coordinate(x, y);
+	}
+
+	public List<Coordinate> sample(int count, SplittableRandom random) {
+		List<Coordinate> coords = new ArrayList<Coordinate>(count);
+		for (int i = 0; i < count; i++)
+			coords.add(sample(random));
+		return coords;
+	}
+
+}
@@ -0,0 +1,99 @@
+package kenaiMoose;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.opengis.coverage.PointOutsideCoverageException;
+
+public class SuitabilityGrid {
+
+	/* Decoded copy of the habitat suitability raster for Tick agents
+	 * 		values - first band of the raster as a row-major float[]
+	 * 		transform - world-to-pixel transform matching the source coverage
+	 *
+	 * Sampling is an index calculation with no allocation, replacing GridCoverage2D.evaluate() in the
+	 * per-step Tick.habitat_sample() lookups. The coverage itself is still added to the Geography for display.
+	 * Grids too large for the heap (see TiledRaster.is_large()) are read through a TiledRaster instead.
+	 */
+
+	private final float[] values;
+	private final TiledRaster tiles; // null when the values are held in the heap
+	private final GridTransform transform;
+
+	public SuitabilityGrid(float[] values, GridTransform transform) {
+		this.values = values;
+		this.tiles = null;
+		this.transform = transform;
+	}
+
+	public SuitabilityGrid(TiledRaster tiles, GridTransform transform) {
+		this.values = null;
+		this.tiles = tiles;
+		this.transform = transform;
+	}
+
+	// decode the first band of a loaded coverage into a primitive grid
+	// a grid too large for the heap is kept in tile_file, see TiledRaster.tile_file()
+	public static SuitabilityGrid fromCoverage(GridCoverage2D coverage, File tile_file) {
+		GridTransform transform = GridTransform.fromCoverage(coverage);
+		RenderedImage image = coverage.getRenderedImage();
+		if (TiledRaster.is_large(transform.size())) {
+			// large rasters are copied to tiles a row at a time rather than decoded in full
+			int cols = transform.getCols();
+			TiledRaster.RowSource rows = (row, row_values) -> {
+				int image_y = image.getMinY() + row;
+				image.getData(new Rectangle(image.getMinX(), image_y, cols, 1))
+						.getSamples(image.getMinX(), image_y, cols, 1, 0, row_values);
+			};
+			try {
+				return new SuitabilityGrid(TiledRaster.open_or_write(tile_file, cols, transform.getRows(), 4, rows),
+						transform);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to write the habitat suitability tiles.", e);
+			}
+		}
+		Raster data = image.getData();
+		float[] values = data.getSamples(data.getMinX(), data.getMinY(), transform.getCols(), transform.getRows(), 0,
+				new float[(int) transform.size()]);
+		return new SuitabilityGrid(values, transform);
+	}
+
+	public GridTransform getTransform() {
+		return transform;
+	}
+
+	// backing array, for LandscapeCache to write out - not to be modified, null when tiled
+	public float[] getValues() {
+		return values;
+	}
+
+	// tile store backing the grid, null when held in the heap
+	public TiledRaster getTiles() {
+		return tiles;
+	}
+
+	// raw value of the cell at a row-major index
+	public float get(long index) {
+		if (tiles != null)
+			return tiles.get_value((int) (index % transform.getCols()), (int) (index / transform.getCols()));
+		return values[(int) index];
+	}
+
+	// sample the grid at a world coordinate, mirrors GridCoverage2D.evaluate() by throwing when outside the raster
+	public double sample(double x, double y) {
+		return get(cell(x, y));
+	}
+
+	// row-major index of the cell containing a world coordinate, throwing when outside the raster
+	public long cell(double x, double y) {
+		long index = transform.index(x, y);
+		if (index < 0)
+			throw new PointOutsideCoverageException("Habitat suitability sampled outside raster at: " + x + "," + y);
+		return index;
+	}
+
+}
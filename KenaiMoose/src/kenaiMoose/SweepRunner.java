@@ -0,0 +1,241 @@
+package kenaiMoose;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+public class SweepRunner {
+
+	/* Runs every parameterization of a Repast batch parameter file concurrently inside one JVM
+	 * 		Usage: SweepRunner [-s scenario_dir] [-b batch_params.xml] [-t threads] [-l log_level]
+	 *
+	 * The Landscape is loaded once and shared read-only by every run. Repast and the model keep their run
+	 * state in static fields, so each run gets its own class loader that loads repast.* and the agent classes
+	 * afresh, while the landscape classes, Log, JTS and GeoTools come from the parent loader and are shared.
+	 * Runs that don't sweep randomSeed get randomSeed = run number, so each has its own reproducible stream.
+	 * Every file sink of run n writes to its scenario file name with _run<n> appended, and the shared Log is
+	 * configured once here from -l or the sweep's log_level, runs can't reconfigure it.
+	 */
+
+	// kenaiMoose classes whose static state is shared by every run rather than isolated
+	private static final String[] SHARED_CLASSES = { "kenaiMoose.Landscape", "kenaiMoose.LandscapeMask",
+			"kenaiMoose.SuitabilityGrid", "kenaiMoose.GridTransform", "kenaiMoose.AlaskaAlbers", "kenaiMoose.Log",
+			"kenaiMoose.LandscapeCache", "kenaiMoose.TiledRaster", "kenaiMoose.BarrierField", "kenaiMoose.SpawnSampler" };
+
+	public static void main(String[] args) throws Exception {
+		File scenario_dir = new File("KenaiMoose.rs");
+		File batch_params = new File("batch/batch_params.xml");
+		int threads = Runtime.getRuntime().availableProcessors();
+		String log_level = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-s") && i + 1 < args.length)
+				scenario_dir = new File(args[++i]);
+			else if (args[i].equals("-b") && i + 1 < args.length)
+				batch_params = new File(args[++i]);
+			else if (args[i].equals("-t") && i + 1 < args.length && args[i + 1].matches("[1-9][0-9]*"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-l") && i + 1 < args.length)
+				log_level = args[++i];
+			else {
+				System.err.println("Usage: SweepRunner [-s scenario_dir] [-b batch_params.xml] [-t threads] [-l log_level]");
+				System.exit(1);
+			}
+		}
+
+		List<Map<String, String>> runs = read_sweep(batch_params);
+		Log.lock(log_level != null ? log_level : sweep_log_level(runs));
+		Log.info(Log.SETUP, runs.size() + " runs in " + batch_params + " on " + threads + " threads.");
+
+		long start = System.currentTimeMillis();
+		Landscape.setShared(LandscapeCache.load());
+		Log.info(Log.SETUP, "Landscape loaded in " + (System.currentTimeMillis() - start) / 1000.0 + " s.");
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		int digits = Integer.toString(runs.size()).length();
+		for (int run = 0; run < runs.size(); run++) {
+			final File scenario = scenario_dir;
+			final Map<String, String> values = runs.get(run);
+			final String suffix = String.format("_run%0" + digits + "d", run + 1);
+			results.add(pool.submit(() -> {
+				run_isolated(scenario, values, suffix);
+				return null;
+			}));
+		}
+		int failed = 0;
+		for (int run = 0; run < results.size(); run++) {
+			try {
+				results.get(run).get();
+			} catch (Exception e) {
+				failed++;
+				Log.error(Log.SETUP, "Run " + (run + 1) + " " + runs.get(run) + " failed: " + e.getCause());
+			}
+		}
+		pool.shutdown();
+		Log.info(Log.SETUP, "Sweep of " + runs.size() + " runs (" + failed + " failed) finished in "
+				+ (System.currentTimeMillis() - start) / 1000.0 + " s.");
+		Log.flush();
+	}
+
+	// the log_level every run sets, a swept log_level can't apply per run since the Log is shared
+	private static String sweep_log_level(List<Map<String, String>> runs) {
+		String log_level = runs.isEmpty() ? null : runs.get(0).get("log_level");
+		for (Map<String, String> values : runs) {
+			String value = values.get("log_level");
+			if (value == null ? log_level != null : !value.equals(log_level)) {
+				Log.warn(Log.SETUP, "log_level is swept but every run shares one Log, using " + log_level
+						+ " for all of them. Pass -l to choose.");
+				break;
+			}
+		}
+		return log_level;
+	}
+
+	// run one parameterization through HeadlessRunner inside a fresh class loader
+	private static void run_isolated(File scenario_dir, Map<String, String> values, String output_suffix) throws Exception {
+		Thread thread = Thread.currentThread();
+		ClassLoader previous = thread.getContextClassLoader();
+		try (IsolatingClassLoader loader = new IsolatingClassLoader(SweepRunner.class.getClassLoader())) {
+			thread.setContextClassLoader(loader);
+			loader.loadClass("kenaiMoose.HeadlessRunner").getMethod("run_scenario", File.class, Map.class, String.class)
+					.invoke(null, scenario_dir, values, output_suffix);
+		} finally {
+			thread.setContextClassLoader(previous);
+		}
+	}
+
+	/* Sweep file */
+
+	// expand a batch parameter file into one value map per run, nested parameters vary fastest
+	protected static List<Map<String, String>> read_sweep(File file) throws Exception {
+		Element sweep = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+		int repeats = sweep.hasAttribute("runs") ? Integer.parseInt(sweep.getAttribute("runs")) : 1;
+		List<Map<String, String>> combinations = new ArrayList<Map<String, String>>();
+		expand(child_parameters(sweep), 0, new LinkedHashMap<String, String>(), combinations);
+
+		List<Map<String, String>> runs = new ArrayList<Map<String, String>>();
+		for (Map<String, String> combination : combinations) {
+			for (int repeat = 0; repeat < repeats; repeat++) {
+				Map<String, String> values = new LinkedHashMap<String, String>(combination);
+				if (!values.containsKey("randomSeed"))
+					values.put("randomSeed", Integer.toString(runs.size() + 1));
+				runs.add(values);
+			}
+		}
+		return runs;
+	}
+
+	// every value of the parameter at index combined with every combination of its children and later siblings
+	private static void expand(List<Element> parameters, int index, Map<String, String> values,
+			List<Map<String, String>> combinations) {
+		if (index == parameters.size()) {
+			combinations.add(new LinkedHashMap<String, String>(values));
+			return;
+		}
+		Element parameter = parameters.get(index);
+		List<Element> remaining = new ArrayList<Element>(child_parameters(parameter));
+		remaining.addAll(parameters.subList(index + 1, parameters.size()));
+		for (String value : parameter_values(parameter)) {
+			values.put(parameter.getAttribute("name"), value);
+			expand(remaining, 0, values, combinations);
+		}
+		values.remove(parameter.getAttribute("name"));
+	}
+
+	private static List<Element> child_parameters(Element element) {
+		List<Element> children = new ArrayList<Element>();
+		for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node instanceof Element && node.getNodeName().equals("parameter"))
+				children.add((Element) node);
+		}
+		return children;
+	}
+
+	// constant, list and number parameters as written by the Repast batch parameter editor
+	private static List<String> parameter_values(Element parameter) {
+		List<String> values = new ArrayList<String>();
+		switch (parameter.getAttribute("type")) {
+			case "constant":
+				values.add(parameter.getAttribute("value"));
+				break;
+			case "list":
+				for (String value : parameter.getAttribute("values").trim().split("\\s+"))
+					values.add(value);
+				break;
+			case "number":
+				BigDecimal start = new BigDecimal(parameter.getAttribute("start"));
+				BigDecimal end = new BigDecimal(parameter.getAttribute("end"));
+				BigDecimal step = new BigDecimal(parameter.getAttribute("step"));
+				if (step.signum() <= 0)
+					throw new IllegalArgumentException("Parameter " + parameter.getAttribute("name") + " needs a positive step.");
+				for (BigDecimal value = start; value.compareTo(end) <= 0; value = value.add(step))
+					values.add(value.stripTrailingZeros().toPlainString());
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported sweep type " + parameter.getAttribute("type")
+						+ " for parameter " + parameter.getAttribute("name") + ".");
+		}
+		return values;
+	}
+
+	/* Class loading */
+
+	// child-first loader for repast.* and the agent classes, everything else is delegated to the parent
+	private static class IsolatingClassLoader extends URLClassLoader {
+
+		private final ClassLoader parent;
+
+		IsolatingClassLoader(ClassLoader parent) throws IOException {
+			super(class_path(), parent);
+			this.parent = parent;
+		}
+
+		private static URL[] class_path() throws IOException {
+			String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+			URL[] urls = new URL[entries.length];
+			for (int i = 0; i < entries.length; i++)
+				urls[i] = new File(entries[i]).toURI().toURL();
+			return urls;
+		}
+
+		private static boolean isolated(String name) {
+			if (!name.startsWith("repast.") && !name.startsWith("kenaiMoose."))
+				return false;
+			for (String shared : SHARED_CLASSES) {
+				if (name.equals(shared) || name.startsWith(shared + "$"))
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!isolated(name))
+				return parent.loadClass(name);
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> loaded = findLoadedClass(name);
+				if (loaded == null)
+					loaded = findClass(name);
+				if (resolve)
+					resolveClass(loaded);
+				return loaded;
+			}
+		}
+
+	}
+
+}
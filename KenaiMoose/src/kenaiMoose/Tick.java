@@ -1,10 +1,8 @@
 package kenaiMoose;
 
-import java.util.Random;
-
-import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.geometry.DirectPosition2D;
-import org.opengis.geometry.DirectPosition;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
@@ -26,7 +24,10 @@ public abstract class Tick {
 	protected static Context context;
 	protected static Geography geography;
 	protected GeometryFactory geoFac = new GeometryFactory();
-	protected static GridCoverage2D suitability_raster;
+	protected static SuitabilityGrid suitability_grid;
+	protected static TickIndex tick_index;
+	protected static boolean egg_cohorts = false; // lay eggs as EggMass cohorts rather than individual agents
+	protected static TickScheduler scheduler; // steps every Tick and fires their lifecycle events
 	
 	
 	// variables for behavioral functions
@@ -53,9 +54,23 @@ public abstract class Tick {
 	protected static int ADULT_LENGTH; // average length of time before adult mortality
 	protected static int ADULT_FEED_LENGTH; // adult length of attachment for feeding (females only)
 	protected static int EGG_COUNT;
-	protected int lifecycle_counter; // basic counter used to count steps in all stages of lifecycle behaviors
+	protected int stage_start_day; // TickScheduler day the current life stage started, replaces the per-step lifecycle counter
 	protected boolean has_fed; // marker for whether or not tick has successfully fed at current life stage
 	
+	// position in the TickIndex, maintained by the index itself (-1 when not indexed)
+	protected int index_cell = -1;
+	protected int index_slot = -1;
+	
+	// bookkeeping for the TickScheduler, maintained by the scheduler itself (-1 when not registered)
+	protected int scheduler_slot = -1;
+	protected int active_slot = -1;
+	protected int stage_event_id;
+	protected SplittableRandom random; // this Tick's own stream, derived from the run seed and its name
+	
+	// position in the Host's TickBurden, maintained by the burden itself (-1 when not attached)
+	protected int burden_set;
+	protected int burden_slot = -1;
+	
 	// mating behaviors are species specific and should be implemented individually in the child classes
 	protected abstract void mate();
 	// Abstract methods to force setting ATTACH_LENGTH specific to species
@@ -63,8 +78,8 @@ public abstract class Tick {
 	
 	public Tick(String name) {
 		this.name = name;
+		this.random = RandomStreams.stream(name);
 		determine_sex();
-		lifecycle_counter = 0;
 		attach_count = 0;
 		child_count = 0;
 		attached = false;
@@ -78,8 +93,8 @@ public abstract class Tick {
 	public Tick(String name, String life_stage) {
 		this.name = name;
 		this.life_stage = life_stage;
+		this.random = RandomStreams.stream(name);
 		determine_sex();
-		lifecycle_counter = 0;
 		attach_count = 0;
 		child_count = 0;
 		attached = false;
@@ -92,40 +107,102 @@ public abstract class Tick {
 	public void init() {
 		context = ContextUtils.getContext(this);
 		geography = (Geography)context.getProjection("Kenai");
-		System.out.println(this.name + " habitat sample: " + habitat_sample());
-		System.out.println("Ensuring both sexes exist in initial population...");
+		if (Log.enabled(Log.TICK, Log.DEBUG)) {
+			Log.debug(Log.TICK, this.name + " habitat sample: " + habitat_sample());
+			Log.debug(Log.TICK, "Ensuring both sexes exist in initial population...");
+		}
 		check_both_sexes();
-		System.out.println("Done.");
+		Log.debug(Log.TICK, "Done.");
+	}
+	
+	// set the static suitability grid for the class, decoded once from the raster layer in ContextBuilder
+	public static void setSuitability(SuitabilityGrid grid) {
+		suitability_grid = grid;
+		return;
+	}
+	
+	// set the static spatial index used by Host agents to find unattached Ticks
+	public static void setIndex(TickIndex index) {
+		tick_index = index;
+		return;
+	}
+	
+	// set whether eggs are laid as EggMass cohorts
+	public static void setEggCohorts(boolean cohorts) {
+		egg_cohorts = cohorts;
+		return;
 	}
 	
-	// set the static suitability raster layer for the class
-	public static void setSuitability(GridCoverage2D raster) {
-		suitability_raster = raster;
+	// set the static scheduler that drives every Tick agent
+	public static void setScheduler(TickScheduler tick_scheduler) {
+		scheduler = tick_scheduler;
 		return;
 	}
 	
+	// add this Tick to the spatial index at its current position if it is available to Hosts
+	protected void index_add() {
+		if (tick_index != null && !attached && !laying_eggs) {
+			Coordinate coord = geography.getGeometry(this).getCoordinate();
+			index_add(this, coord);
+		}
+	}
+	
+	// add a Tick to the spatial index at a NAD83 Coordinate, the index itself works in EPSG:3338 metres
+	protected static void index_add(Tick tick, Coordinate coord) {
+		double[] xy = new double[2];
+		AlaskaAlbers.EPSG_3338.project(coord.x, coord.y, xy);
+		tick_index.insert(tick, xy[0], xy[1]);
+	}
+	
+	// add a batch of new Ticks at one location, e.g. a brood of eggs: one Context call, one TickIndex insertion and
+	// one Point shared by all of them, which is safe since a Tick is always moved to a new geometry, never modified
+	protected static void add_brood(List<Tick> brood, Point location, int lifecycle_counter) {
+		context.addAll(brood);
+		for (Tick tick : brood) {
+			geography.move(tick, location);
+			scheduler.register(tick, lifecycle_counter);
+		}
+		if (tick_index != null) {
+			double[] xy = new double[2];
+			AlaskaAlbers.EPSG_3338.project(location.getX(), location.getY(), xy);
+			tick_index.insert_all(brood, xy[0], xy[1]);
+		}
+	}
+	
+	protected void index_remove() {
+		if (tick_index != null)
+			tick_index.remove(this);
+	}
+	
 	public boolean is_laying_eggs() {
 		return laying_eggs;
 	}
 	
 	// returns the Coordinate for the current position of the agent
+	// attached Ticks are wherever their Host is, their own geometry is only kept current for the display
 	public Coordinate getCoord() {
+		if (attached)
+			return host.getCoord();
 		Geometry geo_geom = geography.getGeometry(this);
-		System.out.println("\t Geometry: " + geo_geom.toString());
 		Coordinate geo_coord = geo_geom.getCoordinate();
-		System.out.println("\t Coordinate: " + geo_coord.x + "," + geo_coord.y);
+		if (Log.enabled(Log.COORD, Log.DEBUG)) {
+			Log.debug(Log.COORD, "\t Geometry: " + geo_geom.toString());
+			Log.debug(Log.COORD, "\t Coordinate: " + geo_coord.x + "," + geo_coord.y);
+		}
 		return geo_coord;
 		//return new Coordinate(geography.getGeometry(this).getCoordinate());
 	}
 	
 	// Get lat and long for data sets
 	public double getLong() {
-		System.out.println(name + " getting Coordinate for longitude (reporting):");
+		if (Log.enabled(Log.COORD, Log.DEBUG))
+			Log.debug(Log.COORD, name + " getting Coordinate for longitude (reporting):");
 		Coordinate coord = getCoord();
 		return coord.x;
 	}
 	public double getLat() {
-		System.out.println(name + " getting Coordinate for latitude (reporting):");
+		if (Log.enabled(Log.COORD, Log.DEBUG))
+			Log.debug(Log.COORD, name + " getting Coordinate for latitude (reporting):");
 		Coordinate coord = getCoord();
 		return coord.y;
 	}
@@ -155,47 +232,52 @@ public abstract class Tick {
 	}
 	
 	
-	// primary method for Tick agents, executed every step
-	@ScheduledMethod(start = 1, interval = 1)
-	public void step() {
-		// if Tick is attached, update position to Host's new position
-		if(attached) {
-			Coordinate newPosition = host.getCoord();
-			Point newPoint = geoFac.createPoint(newPosition);
-			geography.move(this, newPoint);
-			// Tick has been riding Host for specified amount of time
-			// 	 (been attached long enough)  &&    (not an adult) - adult detachment behavior handled in lifecycle()
-			if (attach_count >= attach_length && !life_stage.equals("adult") ) {
-				detach();
-			}
-			else
-				attach_count++;
-		}
-		lifecycle();
-		
+	// attached Ticks update their geometry to the Host's new position so the display can draw them, without a
+	// display the geometry is left where the Tick attached and only updated by detach()
+	protected void follow_host() {
+		Coordinate newPosition = host.getCoord();
+		Point newPoint = geoFac.createPoint(newPosition);
+		geography.move(this, newPoint);
 	}
 	
-	// this method runs every 90 steps to skip the simulation forward 275 days
-	// associated habitat suitability deaths and lifecycle behaviors are also advanced 275 days
-	@ScheduledMethod(start = 90, interval = 90)
-	public void skip_inactive_period() {
-		double prob_death = 1 - habitat_sample(); 
-		double prob_death_per_day = prob_death / 365;
-		
-		if (Math.random() < (prob_death_per_day * 275) ) {
-			System.out.println(name + " dying from habitat sampling (275 day skip):");
-			System.out.println("\tHabitat Sample: " + habitat_sample());
-			die();
-			return;
+	// count another day on the Host, evaluated in parallel so detaching is left to the TickChanges commit
+	protected void ride(TickChanges changes) {
+		// Tick has been riding Host for specified amount of time
+		// 	 (been attached long enough)  &&    (not an adult) - adult detachment behavior handled in act()
+		if (attach_count >= attach_length && !life_stage.equals("adult") ) {
+			changes.detach(this);
 		}
-		
-		// kill any adult females that didn't lay their eggs before winter
-		if (this.laying_eggs) {
-			die();
-			return;
+		else
+			attach_count++;
+	}
+	
+	// habitat suitability deaths are drawn in bulk by the TickScheduler, grouped by raster cell and life stage
+	protected void die_from_habitat(String period) {
+		if (Log.enabled(Log.TICK, Log.DEBUG)) {
+			Log.debug(Log.TICK, name + " dying from habitat sampling (" + period + "):");
+			Log.debug(Log.TICK, "\tHabitat Sample: " + habitat_sample());
 		}
-		lifecycle_counter += 275;
-		return;
+		die();
+	}
+	
+	// suitability raster cell under the Tick, the TickScheduler groups mortality draws by it
+	protected long habitat_cell() {
+		// a constant parameterized habitat sample puts every Tick in the same cell
+		if (habitat_sample > 0)
+			return 0;
+		Coordinate coord = attached ? host.getCoord() : geography.getGeometry(this).getCoordinate();
+		return suitability_grid.cell(coord.x, coord.y);
+	}
+	
+	// suitability of a cell returned by habitat_cell()
+	protected static double habitat_of_cell(long cell) {
+		if (habitat_sample > 0)
+			return habitat_sample;
+		return suitability_grid.get(cell);
+	}
+	
+	public int getLifecycleCounter() {
+		return scheduler.lifecycle_counter(this);
 	}
 	
 	
@@ -203,13 +285,16 @@ public abstract class Tick {
 	public boolean attach(Host host) {
 		// only adults and nymphs should attach
 		if (this.life_stage.equals("adult")) {
-			int num_ticks = host.tick_list.size();
+			int num_ticks = host.burden.size();
 			double prob = 1.0;
 			//double prob = 1.0 / (num_ticks + 2);
-			if (Math.random() < prob) {
+			if (random.nextDouble() < prob) {
 				attached = true;
 				this.host = host;
 				host.add_tick(this);
+				index_remove();
+				scheduler.set_active(this, true);
+				scheduler.regroup(this); // now sampled at the Host
 				return true;
 			}
 		}
@@ -222,13 +307,18 @@ public abstract class Tick {
 		attach_count = 0;
 		host.remove_tick(this);
 		//System.out.println(name + " detached from " + host.getName());
+		// dropped at the Host's last position, the only geometry update a riding Tick gets without a display
+		if (!Host.display)
+			geography.move(this, geoFac.createPoint(host.getCoord()));
 		host = null;
+		index_add(); // available to other Hosts again
+		scheduler.set_active(this, laying_eggs);
+		scheduler.regroup(this);
 	}
 	
 	// set male or female
 	private void determine_sex() {
-		Random rnd = new Random();
-		switch(rnd.nextInt(2)) {
+		switch(random.nextInt(2)) {
 			case 0: // female
 				female = true;
 				break;
@@ -265,7 +355,7 @@ public abstract class Tick {
 				}
 				// change a male to female and return
 				else {
-					System.out.println("\t" + temp_tick.name + " forced to female to ensure both sexes.");
+					Log.info(Log.TICK, "\t" + temp_tick.name + " forced to female to ensure both sexes.");
 					temp_tick.female = true;
 					return;
 				}
@@ -278,7 +368,7 @@ public abstract class Tick {
 				Tick temp_tick = tick_list.get(i);
 				// change a female to male and return
 				if (temp_tick.isFemale()) {
-					System.out.println("\t" + temp_tick.name +  " forced to male to ensure both sexes.");
+					Log.info(Log.TICK, "\t" + temp_tick.name +  " forced to male to ensure both sexes.");
 					temp_tick.female = false;
 					return;
 				}
@@ -289,89 +379,68 @@ public abstract class Tick {
 		}
 	}
 	
-	// this method handles the bulk of the lifecycle behaviors and is split between the different lifestates
-	// egg, larva and nymph lifestates are fairly simple, attempting to survive long enough to transform
-	// adult lifestates are more complex due to mating behaviors and have additional helper methods
-	private void lifecycle() {
-		lifecycle_counter++;
-		double prob_death = 1 - habitat_sample(); 
-		double prob_death_per_day = prob_death / 365;
-		if (Math.random() < prob_death_per_day) {
-			System.out.println(name + " dying from habitat sampling (active 90 days):");
-			System.out.println("\tHabitat Sample: " + habitat_sample());
-			die();
-			return;
-		}
-		
+	// stage transitions are fired once by the TickScheduler when the current stage has run its course
+	// egg, larva and nymph lifestates are fairly simple, transforming if they survived long enough
+	// adults die of old age, their mating behaviors are handled every step in act()
+	protected void end_stage() {
 		switch (life_stage) {
 			case "egg":
-				if (lifecycle_counter > EGG_LENGTH)
-					hatch();
+				hatch();
 				break;
 			case "larva":
-				if (lifecycle_counter > LARVA_LENGTH) {
-					molt();
-					break;
-				}
-				break;
 			case "nymph":
-				if (lifecycle_counter > NYMPH_LENGTH) {
-					molt();
-					break;
-				}
+				molt();
 				break;
 			case "adult": 
-				// female behaviors are fairly simple - just need to check for mortality
-				if(female) {
-					if (lifecycle_counter > ADULT_LENGTH) {
-						System.out.println(name + " dying from being too old (adult female):");
-						System.out.println("\t Lifecycle Counter: " + lifecycle_counter);
-						die();
-						return;
-					}
-					if (laying_eggs) {
-						lay_eggs();
-					}
-				}
-				// male behaviors - if attached, search for a viable mate
-				else {
-					if (lifecycle_counter > ADULT_LENGTH) {
-						System.out.println(name + " dying from being too old (adult male):");
-						System.out.println("\t Lifecycle Counter: " + lifecycle_counter);
-						die();
-						return;
-					}
-					if (attached) {
-						for(Tick tick : host.tick_list) {
-							  if (tick.female) {
-							    mate();
-							    tick.mate();
-							    break;
-							  }
-						}
-						break;
-					}
+				if (Log.enabled(Log.TICK, Log.DEBUG)) {
+					Log.debug(Log.TICK, name + " dying from being too old (adult " + (female ? "female" : "male") + "):");
+					Log.debug(Log.TICK, "\t Lifecycle Counter: " + getLifecycleCounter());
 				}
+				die();
 				break;
 			default:
-				System.out.println("\tLife cycle error: " + name + " has invalid life stage. Removing agent.");
+				Log.error(Log.TICK, "\tLife cycle error: " + name + " has invalid life stage. Removing agent.");
 				die();
-				return;
+		}
+	}
+	
+	// adult behaviors, called every step by the TickScheduler for Ticks that are attached or laying eggs
+	// evaluated in parallel, so anything touching other agents is recorded in changes
+	protected void act(TickChanges changes) {
+		if (!life_stage.equals("adult"))
+			return;
+		// female behaviors are fairly simple - lay the next batch of eggs
+		if (female) {
+			if (laying_eggs) {
+				lay_eggs(changes);
+			}
+		}
+		// male behaviors - if attached, search for a viable mate
+		else if (attached) {
+			changes.mating(this);
+		}
+	}
+	
+	// attached male searching its Host for a viable mate, mating changes both Ticks so this runs serially
+	protected void find_mate() {
+		Tick female = host.burden.any_female();
+		if (female != null) {
+			mate();
+			female.mate();
 		}
 	}
 	
 	// wrapper for hatching behavior transitioning egg to larva
-	private void hatch() {
-		lifecycle_counter = 0;
+	protected void hatch() {
 		has_fed = false;
 		life_stage = "larva";
 		set_attach_length(life_stage);
+		scheduler.start_stage(this);
 		return;
 	}
 	
 	// wrapper for molting behavior, transitioning larva and nymphs to their next lifestages
 	private void molt() {
-		lifecycle_counter = 0;
 		has_fed = false;
 		switch(life_stage) {
 			case "larva":
@@ -383,28 +452,48 @@ public abstract class Tick {
 				set_attach_length(life_stage);
 				break;
 		}
+		scheduler.start_stage(this);
 	}
 	
 	// egg laying behavior - eggs are laid over a period of days allowing female adults the possibility of
 	// dying to the habitat suitability layer during the egg laying process
 	protected void lay_eggs() {
+		TickChanges changes = new TickChanges();
+		lay_eggs(changes);
+		changes.commit();
+	}
+	
+	// the new agents are created here but only added to the Context when changes is committed
+	protected void lay_eggs(TickChanges changes) {
 		
 		if (eggs_remaining > 0) {
-			System.out.println(name + " getting Coordinate for egg laying:");
-			Coordinate coord = getCoord();
+			if (Log.enabled(Log.TICK, Log.DEBUG))
+				Log.debug(Log.TICK, name + " getting Coordinate for egg laying:");
+			Coordinate coord = new Coordinate(getCoord());
+			// one cohort agent for the whole batch instead of an agent per egg
+			if (egg_cohorts) {
+				int count = Math.min(100, eggs_remaining);
+				Point curr_loc = geoFac.createPoint(coord);
+				EggMass egg_mass = new EggMass(name, child_count, count, coord, curr_loc);
+				child_count += count;
+				eggs_remaining -= count;
+				changes.cohort(egg_mass);
+				return;
+			}
+			List<Tick> brood = new ArrayList<Tick>(Math.min(100, eggs_remaining));
 			for (int i = 0; i < 100 && eggs_remaining > 0; i++) {
 				IxPacificus new_tick = new IxPacificus("Child " + child_count + " of " + name, "egg");
 				child_count++;
 				eggs_remaining--;
-				Point curr_loc = geoFac.createPoint(coord);
-				context.add(new_tick);
-				geography.move(new_tick, curr_loc);
+				brood.add(new_tick);
 			}
+			changes.brood(brood, coord);
 			//System.out.println(name + " has " + eggs_remaining + " eggs left.");
 		}
 		else {
-			System.out.println(name + " dying from laying all eggs:");
-			die();
+			if (Log.enabled(Log.TICK, Log.DEBUG))
+				Log.debug(Log.TICK, name + " dying from laying all eggs:");
+			changes.death(this);
 		}
 	}
 	
@@ -412,11 +501,14 @@ public abstract class Tick {
 	// all references to the contextual framework
 	public void die() {
 		if (attached) {
-			System.out.println("\tHost: " + host.getName());
+			if (Log.enabled(Log.TICK, Log.DEBUG))
+				Log.debug(Log.TICK, "\tHost: " + host.getName());
 			detach();
 		}
+		index_remove();
+		scheduler.unregister(this);
 		context.remove(this);
-		System.out.println("\tSuccessfully removed from context.");
+		Log.debug(Log.TICK, "\tSuccessfully removed from context.");
 		return;
 	}
 	
@@ -432,12 +524,10 @@ public abstract class Tick {
 		// if habitat_sample > 0, we're using a constant parameterized habitat sample value
 		if (habitat_sample > 0)
 			return habitat_sample;
-		// using habitat suitability raster
+		// using habitat suitability raster, sampled from the decoded grid without allocating
 		else {
-			Coordinate coord = new Coordinate(geography.getGeometry(this).getCoordinate());
-			DirectPosition position = new DirectPosition2D(geography.getCRS(), coord.x, coord.y);
-			double[] sample = (double[]) suitability_raster.evaluate(position);
-			return sample[0];
+			Coordinate coord = attached ? host.getCoord() : geography.getGeometry(this).getCoordinate();
+			return suitability_grid.sample(coord.x, coord.y);
 		}
 	}
 }
@@ -0,0 +1,70 @@
+package kenaiMoose;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TickBurden {
+
+	/* Ticks attached to one Host, kept as indexed sets so attaching and detaching are O(1)
+	 * 		FEMALE, MALE - adult Ticks by sex, so a male looking for a mate only checks one count
+	 * 		OTHER - any other life stage, only adults attach at present
+	 *
+	 * Each Tick records which set it is in and its slot (Tick.burden_set, Tick.burden_slot), removal swaps
+	 * the last Tick of the set into the freed slot. Counts are plain ints for reporting without copying.
+	 */
+
+	public static final int FEMALE = 0;
+	public static final int MALE = 1;
+	public static final int OTHER = 2;
+
+	private final Tick[][] sets = { new Tick[4], new Tick[4], new Tick[4] };
+	private final int[] counts = new int[3];
+
+	public void add(Tick tick) {
+		int set = tick.life_stage.equals("adult") ? (tick.female ? FEMALE : MALE) : OTHER;
+		if (counts[set] == sets[set].length)
+			sets[set] = Arrays.copyOf(sets[set], counts[set] * 2);
+		sets[set][counts[set]] = tick;
+		tick.burden_set = set;
+		tick.burden_slot = counts[set]++;
+	}
+
+	public void remove(Tick tick) {
+		int set = tick.burden_set;
+		int slot = tick.burden_slot;
+		if (slot < 0 || sets[set][slot] != tick)
+			return;
+		Tick moved = sets[set][--counts[set]];
+		sets[set][slot] = moved;
+		moved.burden_slot = slot;
+		sets[set][counts[set]] = null;
+		tick.burden_slot = -1;
+	}
+
+	public int size() {
+		return counts[FEMALE] + counts[MALE] + counts[OTHER];
+	}
+
+	public int count(int set) {
+		return counts[set];
+	}
+
+	// a female adult on the Host, or null, for mate finding
+	public Tick any_female() {
+		return counts[FEMALE] > 0 ? sets[FEMALE][0] : null;
+	}
+
+	// move every Tick into removed and empty the burden in one pass, the Ticks' own attachment state is untouched
+	public void clear(List<Tick> removed) {
+		for (int set = FEMALE; set <= OTHER; set++) {
+			Tick[] ticks = sets[set];
+			for (int slot = 0; slot < counts[set]; slot++) {
+				ticks[slot].burden_slot = -1;
+				removed.add(ticks[slot]);
+				ticks[slot] = null;
+			}
+			counts[set] = 0;
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package kenaiMoose;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+public class TickChanges {
+
+	/* Structural changes gathered while Ticks are evaluated in parallel, applied serially by commit()
+	 * 		detaches - Ticks that have ridden their Host long enough
+	 * 		broods, brood_coords - batches of new egg agents and where each batch was laid
+	 * 		cohorts - EggMass agents, placed at their own shared Point
+	 * 		matings - attached males looking for a female on their Host
+	 * 		deaths - Ticks to remove from the Context
+	 *
+	 * Every parallel task fills its own TickChanges and the TickScheduler commits them in task order, so the
+	 * result doesn't depend on thread timing. Within one buffer changes are applied by kind, not in the order
+	 * they were recorded: detaches, broods, cohorts, matings, then deaths. Context, Geography, TickIndex and Host changes only happen in
+	 * commit(), which lets the evaluation run while nothing else modifies them.
+	 */
+
+	private final List<Tick> detaches = new ArrayList<Tick>();
+	private final List<List<Tick>> broods = new ArrayList<List<Tick>>();
+	private final List<Coordinate> brood_coords = new ArrayList<Coordinate>();
+	private final List<EggMass> cohorts = new ArrayList<EggMass>();
+	private final List<Tick> matings = new ArrayList<Tick>();
+	private final List<Tick> deaths = new ArrayList<Tick>();
+
+	public void detach(Tick tick) {
+		detaches.add(tick);
+	}
+
+	public void brood(List<Tick> brood, Coordinate coord) {
+		broods.add(brood);
+		brood_coords.add(coord);
+	}
+
+	public void cohort(EggMass egg_mass) {
+		cohorts.add(egg_mass);
+	}
+
+	public void mating(Tick male) {
+		matings.add(male);
+	}
+
+	public void death(Tick tick) {
+		deaths.add(tick);
+	}
+
+	public boolean isEmpty() {
+		return detaches.isEmpty() && broods.isEmpty() && cohorts.isEmpty() && matings.isEmpty() && deaths.isEmpty();
+	}
+
+	// apply the changes grouped by kind - detaches, broods, cohorts, matings, deaths - each kind in the order it
+	// was recorded, then clear the buffer for reuse
+	public void commit() {
+		for (Tick tick : detaches) {
+			if (tick.attached)
+				tick.detach();
+		}
+		GeometryFactory geoFac = new GeometryFactory();
+		for (int i = 0; i < broods.size(); i++) {
+			Tick.add_brood(broods.get(i), geoFac.createPoint(brood_coords.get(i)), 0);
+		}
+		for (EggMass egg_mass : cohorts) {
+			Tick.context.add(egg_mass);
+			Tick.geography.move(egg_mass, egg_mass.getPoint());
+		}
+		// an earlier mating on the same Host may have used the female or killed the male already
+		for (Tick male : matings) {
+			if (male.scheduler_slot >= 0 && male.attached)
+				male.find_mate();
+		}
+		for (Tick tick : deaths) {
+			if (tick.scheduler_slot >= 0)
+				tick.die();
+		}
+		detaches.clear();
+		broods.clear();
+		brood_coords.clear();
+		cohorts.clear();
+		matings.clear();
+		deaths.clear();
+	}
+
+}
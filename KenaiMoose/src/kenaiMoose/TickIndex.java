@@ -0,0 +1,250 @@
+package kenaiMoose;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class TickIndex {
+
+	/* Uniform-grid spatial hash of Tick agents available to Host encounter queries
+	 * 		cols, rows - dimensions of the grid laid over the extent given at construction
+	 * 		cell_size - width and height of a cell in metres
+	 * 		buckets - per-cell arrays of Ticks with parallel x/y arrays holding their positions
+	 *
+	 * Positions are EPSG:3338 (Alaska Albers) metres, see AlaskaAlbers, so radius tests are plain arithmetic.
+	 * Only unattached ticks that are not laying eggs are kept here. Tick agents update the index themselves
+	 * when they are placed, attach, detach or die, and store their own cell and slot so removal is O(1).
+	 * Positions outside the extent are clamped into the edge cells so nothing is lost. Static SmHost home
+	 * ranges are registered once and kept up to date by insert() and remove(), see HomeRangeRegistry.
+	 */
+
+	private static final int INITIAL_BUCKET_SIZE = 8;
+
+	private final double origin_x;
+	private final double origin_y;
+	private final double cell_size;
+	private final int cols;
+	private final int rows;
+
+	private final Tick[][] buckets;
+	private final double[][] bucket_x;
+	private final double[][] bucket_y;
+	private final int[] counts;
+	private int size;
+	private HomeRangeRegistry home_ranges; // null until a home range is registered
+
+	// extent - area to cover in EPSG:3338 metres, cell_size - width and height of a cell in metres
+	public TickIndex(Envelope extent, double cell_size) {
+		origin_x = extent.getMinX();
+		origin_y = extent.getMinY();
+		this.cell_size = cell_size;
+		cols = Math.max(1, (int) Math.ceil(extent.getWidth() / cell_size));
+		rows = Math.max(1, (int) Math.ceil(extent.getHeight() / cell_size));
+		buckets = new Tick[cols * rows][];
+		bucket_x = new double[cols * rows][];
+		bucket_y = new double[cols * rows][];
+		counts = new int[cols * rows];
+		size = 0;
+	}
+
+	private int col(double x) {
+		int col = (int) Math.floor((x - origin_x) / cell_size);
+		return col < 0 ? 0 : (col >= cols ? cols - 1 : col);
+	}
+
+	private int row(double y) {
+		int row = (int) Math.floor((y - origin_y) / cell_size);
+		return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+	}
+
+	private int cell(double x, double y) {
+		return row(y) * cols + col(x);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(Tick tick) {
+		return tick.index_cell >= 0;
+	}
+
+	// add a tick at the given position, does nothing if it is already indexed
+	public void insert(Tick tick, double x, double y) {
+		if (tick.index_cell >= 0)
+			return;
+		int cell = cell(x, y);
+		int count = counts[cell];
+		if (buckets[cell] == null) {
+			buckets[cell] = new Tick[INITIAL_BUCKET_SIZE];
+			bucket_x[cell] = new double[INITIAL_BUCKET_SIZE];
+			bucket_y[cell] = new double[INITIAL_BUCKET_SIZE];
+		}
+		else if (count == buckets[cell].length) {
+			int new_length = count * 2;
+			buckets[cell] = Arrays.copyOf(buckets[cell], new_length);
+			bucket_x[cell] = Arrays.copyOf(bucket_x[cell], new_length);
+			bucket_y[cell] = Arrays.copyOf(bucket_y[cell], new_length);
+		}
+		buckets[cell][count] = tick;
+		bucket_x[cell][count] = x;
+		bucket_y[cell][count] = y;
+		tick.index_cell = cell;
+		tick.index_slot = count;
+		counts[cell] = count + 1;
+		size++;
+		if (home_ranges != null)
+			home_ranges.inserted(tick, cell, x, y);
+	}
+
+	// add a batch of new ticks that share one position, such as a brood of eggs, growing the bucket at most once
+	// the ticks must not be indexed yet
+	public void insert_all(List<Tick> ticks, double x, double y) {
+		int cell = cell(x, y);
+		int count = counts[cell];
+		int needed = count + ticks.size();
+		if (buckets[cell] == null || needed > buckets[cell].length) {
+			int new_length = Math.max(INITIAL_BUCKET_SIZE, buckets[cell] == null ? 0 : buckets[cell].length);
+			while (new_length < needed)
+				new_length *= 2;
+			buckets[cell] = buckets[cell] == null ? new Tick[new_length] : Arrays.copyOf(buckets[cell], new_length);
+			bucket_x[cell] = bucket_x[cell] == null ? new double[new_length] : Arrays.copyOf(bucket_x[cell], new_length);
+			bucket_y[cell] = bucket_y[cell] == null ? new double[new_length] : Arrays.copyOf(bucket_y[cell], new_length);
+		}
+		Tick[] bucket = buckets[cell];
+		for (Tick tick : ticks) {
+			bucket[count] = tick;
+			bucket_x[cell][count] = x;
+			bucket_y[cell][count] = y;
+			tick.index_cell = cell;
+			tick.index_slot = count++;
+		}
+		counts[cell] = count;
+		size += ticks.size();
+		if (home_ranges != null)
+			home_ranges.inserted(ticks, cell, x, y);
+	}
+
+	// remove a tick by swapping the last entry of its bucket into its slot, does nothing if it isn't indexed
+	public void remove(Tick tick) {
+		int cell = tick.index_cell;
+		if (cell < 0)
+			return;
+		int slot = tick.index_slot;
+		int last = counts[cell] - 1;
+		Tick[] bucket = buckets[cell];
+		if (home_ranges != null)
+			home_ranges.removed(tick, cell);
+		if (slot != last) {
+			Tick moved = bucket[last];
+			bucket[slot] = moved;
+			bucket_x[cell][slot] = bucket_x[cell][last];
+			bucket_y[cell][slot] = bucket_y[cell][last];
+			moved.index_slot = slot;
+		}
+		bucket[last] = null;
+		counts[cell] = last;
+		tick.index_cell = -1;
+		tick.index_slot = -1;
+		size--;
+	}
+
+	// collect all indexed ticks whose position falls within the bounds, touching only the cells they overlap
+	public void query(double min_x, double min_y, double max_x, double max_y, List<Tick> result) {
+		int col_start = col(min_x);
+		int col_end = col(max_x);
+		int row_start = row(min_y);
+		int row_end = row(max_y);
+		for (int row = row_start; row <= row_end; row++) {
+			for (int col = col_start; col <= col_end; col++) {
+				int cell = row * cols + col;
+				int count = counts[cell];
+				if (count == 0)
+					continue;
+				Tick[] bucket = buckets[cell];
+				double[] xs = bucket_x[cell];
+				double[] ys = bucket_y[cell];
+				for (int i = 0; i < count; i++) {
+					if (xs[i] >= min_x && xs[i] <= max_x && ys[i] >= min_y && ys[i] <= max_y)
+						result.add(bucket[i]);
+				}
+			}
+		}
+	}
+
+	// register a static home range box and return its id, seeded with the ticks already inside it
+	public int register_home_range(double min_x, double min_y, double max_x, double max_y) {
+		if (home_ranges == null)
+			home_ranges = new HomeRangeRegistry(cols * rows);
+		int id = home_ranges.add(min_x, min_y, max_x, max_y);
+		for (int row = row(min_y); row <= row(max_y); row++) {
+			for (int col = col(min_x); col <= col(max_x); col++)
+				home_ranges.cover(id, row * cols + col);
+		}
+		List<Tick> inside = new ArrayList<Tick>();
+		query(min_x, min_y, max_x, max_y, inside);
+		for (Tick tick : inside)
+			home_ranges.add_member(id, tick);
+		return id;
+	}
+
+	// ticks currently inside a registered home range, without querying the grid
+	public void query_home_range(int id, List<Tick> result) {
+		home_ranges.members(id, result);
+	}
+
+	public void query(Envelope envelope, List<Tick> result) {
+		query(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY(), result);
+	}
+	
+	// collect all indexed ticks within radius of the segment (ax, ay)-(bx, by), the path swept by a Host
+	// cells farther than the radius from the segment are skipped and each candidate gets an exact distance test
+	public void query_corridor(double ax, double ay, double bx, double by, double radius, List<Tick> result) {
+		int col_start = col(Math.min(ax, bx) - radius);
+		int col_end = col(Math.max(ax, bx) + radius);
+		int row_start = row(Math.min(ay, by) - radius);
+		int row_end = row(Math.max(ay, by) + radius);
+		
+		// segment relative to its start point
+		double dx = bx - ax;
+		double dy = by - ay;
+		double radius_sq = radius * radius;
+		double cell_reach = radius + cell_size * Math.sqrt(0.5); // radius plus half the cell diagonal
+		
+		for (int row = row_start; row <= row_end; row++) {
+			double center_y = origin_y + (row + 0.5) * cell_size - ay;
+			for (int col = col_start; col <= col_end; col++) {
+				int cell = row * cols + col;
+				int count = counts[cell];
+				if (count == 0)
+					continue;
+				double center_x = origin_x + (col + 0.5) * cell_size - ax;
+				if (segment_distance_sq(center_x, center_y, dx, dy) > cell_reach * cell_reach)
+					continue;
+				Tick[] bucket = buckets[cell];
+				double[] xs = bucket_x[cell];
+				double[] ys = bucket_y[cell];
+				for (int i = 0; i < count; i++) {
+					if (segment_distance_sq(xs[i] - ax, ys[i] - ay, dx, dy) <= radius_sq)
+						result.add(bucket[i]);
+				}
+			}
+		}
+	}
+	
+	// squared distance from point (px, py) to the segment from the origin to (dx, dy)
+	protected static double segment_distance_sq(double px, double py, double dx, double dy) {
+		double length_sq = dx * dx + dy * dy;
+		double t = length_sq > 0 ? (px * dx + py * dy) / length_sq : 0;
+		if (t < 0)
+			t = 0;
+		else if (t > 1)
+			t = 1;
+		double ex = px - t * dx;
+		double ey = py - t * dy;
+		return ex * ex + ey * ey;
+	}
+
+}
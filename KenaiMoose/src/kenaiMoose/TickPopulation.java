@@ -0,0 +1,618 @@
+package kenaiMoose;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import repast.simphony.context.Context;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.util.ContextUtils;
+
+public class TickPopulation {
+
+	/* Structure-of-arrays store for the Tick population, used in place of one IxPacificus agent per tick
+	 * 		x, y - position in EPSG:3338 metres, attached ticks follow their Host and keep their drop-off point
+	 * 		stage - life stage code (EGG, LARVA, NYMPH, ADULT) or DEAD for a free slot
+	 * 		female, lifecycle_counter, attach_count, eggs_remaining, laying_eggs - as in Tick
+	 * 		host - id of the Host the tick is attached to (see register()), -1 when unattached
+	 * 		groups - (suitability cell, stage) mortality group of every live tick, by slot. Ticks don't move on
+	 * 		         their own, attached ticks are regrouped at their Host's position each step
+	 *
+	 * Slots are stable for the life of a tick and recycled through a free list. A single scheduled bulk step
+	 * applies the same rules as the TickScheduler, drawing habitat deaths per group as it does. Host-seeking
+	 * adults are kept in a uniform grid so Hosts can attach them directly, and attached ticks are linked per
+	 * Host and sex so mate finding and burden counts are O(1). TickView objects are only created on demand for
+	 * reporting.
+	 */
+
+	public static final byte DEAD = -1;
+	public static final byte EGG = 0;
+	public static final byte LARVA = 1;
+	public static final byte NYMPH = 2;
+	public static final byte ADULT = 3;
+	private static final String[] STAGE_NAMES = {"egg", "larva", "nymph", "adult"};
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int EGGS_PER_STEP = 100; // matches Tick.lay_eggs()
+
+	// per-tick state
+	double[] x;
+	double[] y;
+	byte[] stage;
+	boolean[] female;
+	int[] lifecycle_counter;
+	int[] attach_count;
+	int[] host;
+	int[] eggs_remaining;
+	boolean[] laying_eggs;
+	private int[] next_on_host; // doubly linked per-Host lists of attached ticks
+	private int[] prev_on_host;
+	private int[] index_cell; // position in the host-seeking grid, -1 when not indexed
+	private int[] index_slot;
+
+	private int high_water; // slots [0, high_water) have been used at least once
+	private int live;
+	private int[] free_slots;
+	private int free_count;
+	private boolean stepping; // slots freed during a step are not reused until it ends
+
+	// Host registry, each Host gets an id with heads of its attached female and male lists
+	private final List<Host> hosts = new ArrayList<Host>();
+	private int[] host_female_head = new int[16];
+	private int[] host_male_head = new int[16];
+	private int[] host_burden = new int[16];
+	private int[] host_female_burden = new int[16];
+
+	// uniform grid of host-seeking adults, only adults attach (see Tick.attach())
+	private final double origin_x;
+	private final double origin_y;
+	private final double cell_size;
+	private final int cols;
+	private final int rows;
+	private final int[][] cell_ticks;
+	private final int[] cell_counts;
+
+	private List<TickView> published = new ArrayList<TickView>(); // views currently in the context
+
+	private final MortalityGroups groups = new MortalityGroups();
+	private final double[] lonlat = new double[2];
+	private final SplittableRandom random = RandomStreams.stream("TickPopulation"); // one stream, stepped in bulk on one thread
+
+	// extent - area to cover in EPSG:3338 metres, cell_size - width and height of an encounter cell in metres
+	public TickPopulation(Envelope extent, double cell_size) {
+		origin_x = extent.getMinX();
+		origin_y = extent.getMinY();
+		this.cell_size = cell_size;
+		cols = Math.max(1, (int) Math.ceil(extent.getWidth() / cell_size));
+		rows = Math.max(1, (int) Math.ceil(extent.getHeight() / cell_size));
+		cell_ticks = new int[cols * rows][];
+		cell_counts = new int[cols * rows];
+
+		x = new double[INITIAL_CAPACITY];
+		y = new double[INITIAL_CAPACITY];
+		stage = new byte[INITIAL_CAPACITY];
+		female = new boolean[INITIAL_CAPACITY];
+		lifecycle_counter = new int[INITIAL_CAPACITY];
+		attach_count = new int[INITIAL_CAPACITY];
+		host = new int[INITIAL_CAPACITY];
+		eggs_remaining = new int[INITIAL_CAPACITY];
+		laying_eggs = new boolean[INITIAL_CAPACITY];
+		next_on_host = new int[INITIAL_CAPACITY];
+		prev_on_host = new int[INITIAL_CAPACITY];
+		index_cell = new int[INITIAL_CAPACITY];
+		index_slot = new int[INITIAL_CAPACITY];
+		free_slots = new int[INITIAL_CAPACITY];
+		Arrays.fill(host_female_head, -1);
+		Arrays.fill(host_male_head, -1);
+	}
+
+	// same lifecycle lengths as IxPacificus agents, and the same guarantee of both sexes in the starting group
+	@ScheduledMethod(start = 0)
+	public void init() {
+		IxPacificus.set_lifecycle_lengths();
+		Log.debug(Log.TICK, "Ensuring both sexes exist in initial population...");
+		boolean has_female = false;
+		boolean has_male = false;
+		for (int i = 0; i < high_water; i++) {
+			if (stage[i] == DEAD)
+				continue;
+			if (female[i])
+				has_female = true;
+			else
+				has_male = true;
+		}
+		for (int i = 0; i < high_water && live > 1 && !(has_female && has_male); i++) {
+			if (stage[i] == DEAD)
+				continue;
+			if (!has_female && !female[i]) {
+				Log.info(Log.TICK, "\tTick " + i + " forced to female to ensure both sexes.");
+				female[i] = true;
+				has_female = true;
+			}
+			else if (!has_male && female[i]) {
+				Log.info(Log.TICK, "\tTick " + i + " forced to male to ensure both sexes.");
+				female[i] = false;
+				has_male = true;
+			}
+		}
+		Log.debug(Log.TICK, "Done.");
+	}
+
+	/* Population storage */
+
+	private void ensure_capacity(int capacity) {
+		if (capacity <= x.length)
+			return;
+		int new_length = Math.max(capacity, x.length * 2);
+		x = Arrays.copyOf(x, new_length);
+		y = Arrays.copyOf(y, new_length);
+		stage = Arrays.copyOf(stage, new_length);
+		female = Arrays.copyOf(female, new_length);
+		lifecycle_counter = Arrays.copyOf(lifecycle_counter, new_length);
+		attach_count = Arrays.copyOf(attach_count, new_length);
+		host = Arrays.copyOf(host, new_length);
+		eggs_remaining = Arrays.copyOf(eggs_remaining, new_length);
+		laying_eggs = Arrays.copyOf(laying_eggs, new_length);
+		next_on_host = Arrays.copyOf(next_on_host, new_length);
+		prev_on_host = Arrays.copyOf(prev_on_host, new_length);
+		index_cell = Arrays.copyOf(index_cell, new_length);
+		index_slot = Arrays.copyOf(index_slot, new_length);
+	}
+
+	// take a slot for a new tick, reusing free slots except while a step is iterating
+	private int allocate() {
+		if (!stepping && free_count > 0)
+			return free_slots[--free_count];
+		ensure_capacity(high_water + 1);
+		return high_water++;
+	}
+
+	// add a tick at a NAD83 position, as ContextBuilder does for the starting population
+	public int add(double lon, double lat, String life_stage) {
+		byte code = stage_code(life_stage);
+		if (code == DEAD)
+			throw new IllegalArgumentException("Invalid tick life stage: " + life_stage + ", expected one of "
+					+ Arrays.toString(STAGE_NAMES) + ".");
+		AlaskaAlbers.EPSG_3338.project(lon, lat, lonlat);
+		return add(lonlat[0], lonlat[1], code, random.nextDouble() < 0.5);
+	}
+
+	// add a tick at a position in EPSG:3338 metres
+	public int add(double tick_x, double tick_y, byte life_stage, boolean is_female) {
+		return add(tick_x, tick_y, life_stage, is_female, habitat_cell(tick_x, tick_y));
+	}
+
+	// add a tick whose suitability cell is already known, e.g. an egg laid where its mother is
+	private int add(double tick_x, double tick_y, byte life_stage, boolean is_female, long cell) {
+		if (life_stage < EGG || life_stage > ADULT)
+			throw new IllegalArgumentException("Invalid tick life stage code: " + life_stage + ".");
+		int i = allocate();
+		x[i] = tick_x;
+		y[i] = tick_y;
+		stage[i] = life_stage;
+		female[i] = is_female;
+		lifecycle_counter[i] = 0;
+		attach_count[i] = 0;
+		host[i] = -1;
+		eggs_remaining[i] = 0;
+		laying_eggs[i] = false;
+		groups.set(i, cell, life_stage);
+		next_on_host[i] = -1;
+		prev_on_host[i] = -1;
+		index_cell[i] = -1;
+		index_slot[i] = -1;
+		live++;
+		if (life_stage == ADULT)
+			index_insert(i);
+		return i;
+	}
+
+	private void kill(int i) {
+		if (host[i] >= 0)
+			unlink(i);
+		index_remove(i);
+		groups.remove(i);
+		stage[i] = DEAD;
+		live--;
+		if (free_count == free_slots.length)
+			free_slots = Arrays.copyOf(free_slots, free_count * 2);
+		free_slots[free_count++] = i;
+	}
+
+	public static byte stage_code(String life_stage) {
+		for (byte s = 0; s < STAGE_NAMES.length; s++) {
+			if (STAGE_NAMES[s].equals(life_stage))
+				return s;
+		}
+		return DEAD;
+	}
+
+	public static String stage_name(byte code) {
+		return code == DEAD ? "dead" : STAGE_NAMES[code];
+	}
+
+	/* Habitat suitability */
+
+	// suitability raster cell at a position in EPSG:3338 metres, mirrors Tick.habitat_cell()
+	private long habitat_cell(double tick_x, double tick_y) {
+		if (Tick.habitat_sample > 0)
+			return 0;
+		AlaskaAlbers.EPSG_3338.unproject(tick_x, tick_y, lonlat);
+		return Tick.suitability_grid.cell(lonlat[0], lonlat[1]);
+	}
+
+	// habitat sample for a tick, mirrors Tick.habitat_sample() with attached ticks sampled at their Host
+	public double habitat_sample(int i) {
+		if (host[i] >= 0) {
+			Host h = hosts.get(host[i]);
+			return Tick.habitat_of_cell(habitat_cell(h.x, h.y));
+		}
+		return Tick.habitat_of_cell(groups.cell(i));
+	}
+
+	/* Host registry and attachment */
+
+	// give a Host an id for attachment, called from Host.init()
+	public int register(Host h) {
+		int id = hosts.size();
+		hosts.add(h);
+		if (id == host_burden.length) {
+			int new_length = id * 2;
+			host_female_head = Arrays.copyOf(host_female_head, new_length);
+			host_male_head = Arrays.copyOf(host_male_head, new_length);
+			host_burden = Arrays.copyOf(host_burden, new_length);
+			host_female_burden = Arrays.copyOf(host_female_burden, new_length);
+			Arrays.fill(host_female_head, id, new_length, -1);
+			Arrays.fill(host_male_head, id, new_length, -1);
+		}
+		return id;
+	}
+
+	public int burden(int host_id) {
+		return host_burden[host_id];
+	}
+
+	// attached females or males on a Host, every attached tick is an adult
+	public int burden(int host_id, boolean is_female) {
+		int females = host_female_burden[host_id];
+		return is_female ? females : host_burden[host_id] - females;
+	}
+
+	private void link(int i, int host_id) {
+		host[i] = host_id;
+		int[] heads = female[i] ? host_female_head : host_male_head;
+		int head = heads[host_id];
+		next_on_host[i] = head;
+		prev_on_host[i] = -1;
+		if (head >= 0)
+			prev_on_host[head] = i;
+		heads[host_id] = i;
+		host_burden[host_id]++;
+		if (female[i])
+			host_female_burden[host_id]++;
+	}
+
+	private void unlink(int i) {
+		int host_id = host[i];
+		int[] heads = female[i] ? host_female_head : host_male_head;
+		if (prev_on_host[i] >= 0)
+			next_on_host[prev_on_host[i]] = next_on_host[i];
+		else
+			heads[host_id] = next_on_host[i];
+		if (next_on_host[i] >= 0)
+			prev_on_host[next_on_host[i]] = prev_on_host[i];
+		next_on_host[i] = -1;
+		prev_on_host[i] = -1;
+		host[i] = -1;
+		host_burden[host_id]--;
+		if (female[i])
+			host_female_burden[host_id]--;
+	}
+
+	private void attach(int i, int host_id) {
+		index_remove(i);
+		link(i, host_id);
+	}
+
+	// drop a tick at its Host's current position, mirrors Tick.detach()
+	private void detach(int i) {
+		Host h = hosts.get(host[i]);
+		unlink(i);
+		attach_count[i] = 0;
+		x[i] = h.x;
+		y[i] = h.y;
+		groups.set(i, habitat_cell(x[i], y[i]), stage[i]);
+		if (stage[i] == ADULT && !laying_eggs[i])
+			index_insert(i);
+	}
+
+	// attach every host-seeking adult within radius of the segment swept by a Host
+	public void attach_corridor(Host h, double ax, double ay, double bx, double by, double radius) {
+		int col_start = col(Math.min(ax, bx) - radius);
+		int col_end = col(Math.max(ax, bx) + radius);
+		int row_start = row(Math.min(ay, by) - radius);
+		int row_end = row(Math.max(ay, by) + radius);
+		double dx = bx - ax;
+		double dy = by - ay;
+		double radius_sq = radius * radius;
+		for (int row = row_start; row <= row_end; row++) {
+			for (int col = col_start; col <= col_end; col++) {
+				int cell = row * cols + col;
+				// iterate backwards since attaching removes the tick from this cell
+				for (int k = cell_counts[cell] - 1; k >= 0; k--) {
+					int i = cell_ticks[cell][k];
+					if (TickIndex.segment_distance_sq(x[i] - ax, y[i] - ay, dx, dy) <= radius_sq)
+						attach(i, h.population_id);
+				}
+			}
+		}
+	}
+
+	// attach every host-seeking adult within the bounds, used by Hosts with a fixed home range
+	public void attach_box(Host h, double min_x, double min_y, double max_x, double max_y) {
+		for (int row = row(min_y); row <= row(max_y); row++) {
+			for (int col = col(min_x); col <= col(max_x); col++) {
+				int cell = row * cols + col;
+				for (int k = cell_counts[cell] - 1; k >= 0; k--) {
+					int i = cell_ticks[cell][k];
+					if (x[i] >= min_x && x[i] <= max_x && y[i] >= min_y && y[i] <= max_y)
+						attach(i, h.population_id);
+				}
+			}
+		}
+	}
+
+	// detach and kill every tick riding a Host, mirrors Moose.removeTicks()
+	public void kill_attached(int host_id) {
+		while (host_female_head[host_id] >= 0)
+			kill(host_female_head[host_id]);
+		while (host_male_head[host_id] >= 0)
+			kill(host_male_head[host_id]);
+	}
+
+	/* Host-seeking grid */
+
+	private int col(double px) {
+		int col = (int) Math.floor((px - origin_x) / cell_size);
+		return col < 0 ? 0 : (col >= cols ? cols - 1 : col);
+	}
+
+	private int row(double py) {
+		int row = (int) Math.floor((py - origin_y) / cell_size);
+		return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+	}
+
+	private void index_insert(int i) {
+		if (index_cell[i] >= 0)
+			return;
+		int cell = row(y[i]) * cols + col(x[i]);
+		int count = cell_counts[cell];
+		if (cell_ticks[cell] == null)
+			cell_ticks[cell] = new int[8];
+		else if (count == cell_ticks[cell].length)
+			cell_ticks[cell] = Arrays.copyOf(cell_ticks[cell], count * 2);
+		cell_ticks[cell][count] = i;
+		index_cell[i] = cell;
+		index_slot[i] = count;
+		cell_counts[cell] = count + 1;
+	}
+
+	private void index_remove(int i) {
+		int cell = index_cell[i];
+		if (cell < 0)
+			return;
+		int slot = index_slot[i];
+		int last = cell_counts[cell] - 1;
+		if (slot != last) {
+			int moved = cell_ticks[cell][last];
+			cell_ticks[cell][slot] = moved;
+			index_slot[moved] = slot;
+		}
+		cell_counts[cell] = last;
+		index_cell[i] = -1;
+		index_slot[i] = -1;
+	}
+
+	/* Bulk stepping */
+
+	// applies the TickScheduler rules to every live tick: riding, grouped habitat deaths, then stage changes
+	@ScheduledMethod(start = 1, interval = 1)
+	public void step() {
+		stepping = true;
+		int end = high_water; // eggs laid during this step are stepped from the next one, as new agents are
+		for (int host_id = 0; host_id < hosts.size(); host_id++) {
+			if (host_burden[host_id] > 0)
+				ride(host_id);
+		}
+		habitat_mortality(1);
+		for (int i = 0; i < end; i++) {
+			if (stage[i] != DEAD)
+				lifecycle(i);
+		}
+		stepping = false;
+	}
+
+	// ticks attached to a Host count another day and move to the group of the Host's new cell
+	// only adults attach and adult detachment is handled by mating, see Tick.ride()
+	private void ride(int host_id) {
+		Host h = hosts.get(host_id);
+		long cell = habitat_cell(h.x, h.y);
+		ride(host_female_head[host_id], cell);
+		ride(host_male_head[host_id], cell);
+	}
+
+	private void ride(int head, long cell) {
+		for (int i = head, next; i >= 0; i = next) {
+			next = next_on_host[i];
+			if (stage[i] != ADULT) {
+				detach(i);
+			}
+			else {
+				attach_count[i]++;
+				groups.set(i, cell, stage[i]);
+			}
+		}
+	}
+
+	// one binomial draw per (cell, stage) group, mirrors TickScheduler.habitat_mortality()
+	private void habitat_mortality(int days) {
+		for (int i : groups.draw_deaths(days, Tick::habitat_of_cell, random))
+			kill(i);
+	}
+
+	private void lifecycle(int i) {
+		lifecycle_counter[i]++;
+		switch (stage[i]) {
+			case EGG:
+				if (lifecycle_counter[i] > Tick.EGG_LENGTH)
+					advance(i, LARVA);
+				break;
+			case LARVA:
+				if (lifecycle_counter[i] > Tick.LARVA_LENGTH)
+					advance(i, NYMPH);
+				break;
+			case NYMPH:
+				if (lifecycle_counter[i] > Tick.NYMPH_LENGTH)
+					advance(i, ADULT);
+				break;
+			case ADULT:
+				if (lifecycle_counter[i] > Tick.ADULT_LENGTH) {
+					kill(i);
+					return;
+				}
+				if (female[i]) {
+					if (laying_eggs[i])
+						lay_eggs(i);
+				}
+				// attached males mate with a female on the same Host, the male dies and the female starts laying
+				else if (host[i] >= 0) {
+					int mate = host_female_head[host[i]];
+					if (mate >= 0) {
+						kill(i);
+						start_laying(mate);
+					}
+				}
+				break;
+			default:
+				kill(i);
+		}
+	}
+
+	// hatch and molt, mirrors Tick.hatch() and Tick.molt()
+	private void advance(int i, byte next_stage) {
+		lifecycle_counter[i] = 0;
+		stage[i] = next_stage;
+		groups.set(i, groups.cell(i), next_stage);
+		if (next_stage == ADULT && host[i] < 0)
+			index_insert(i);
+	}
+
+	// mirrors the female branch of IxPacificus.mate()
+	private void start_laying(int i) {
+		laying_eggs[i] = true;
+		detach(i);
+		eggs_remaining[i] = Tick.EGG_COUNT;
+		lay_eggs(i);
+	}
+
+	// mirrors Tick.lay_eggs(), up to 100 eggs per step at the female's position
+	private void lay_eggs(int i) {
+		if (eggs_remaining[i] <= 0) {
+			kill(i);
+			return;
+		}
+		double egg_x = x[i];
+		double egg_y = y[i];
+		long cell = groups.cell(i); // a laying female is unattached, so her cell is the one under her
+		for (int n = 0; n < EGGS_PER_STEP && eggs_remaining[i] > 0; n++) {
+			add(egg_x, egg_y, EGG, random.nextDouble() < 0.5, cell);
+			eggs_remaining[i]--;
+		}
+	}
+
+	// mirrors TickScheduler.skip_inactive_period() for every live tick
+	@ScheduledMethod(start = 90, interval = 90)
+	public void skip_inactive_period() {
+		habitat_mortality(275);
+		for (int i = 0; i < high_water; i++) {
+			if (stage[i] == DEAD)
+				continue;
+			if (laying_eggs[i]) {
+				kill(i);
+				continue;
+			}
+			lifecycle_counter[i] += 275;
+		}
+	}
+
+	/* Reporting */
+
+	public int getNumTicks() {
+		return live;
+	}
+
+	public int count(byte life_stage) {
+		int count = 0;
+		for (int i = 0; i < high_water; i++) {
+			if (stage[i] == life_stage)
+				count++;
+		}
+		return count;
+	}
+
+	public int getNumEggs() {
+		return count(EGG);
+	}
+
+	public int getNumLarvae() {
+		return count(LARVA);
+	}
+
+	public int getNumNymphs() {
+		return count(NYMPH);
+	}
+
+	public int getNumAdults() {
+		return count(ADULT);
+	}
+
+	// object view of a single tick, created on demand
+	public TickView view(int i) {
+		double view_x = x[i];
+		double view_y = y[i];
+		if (host[i] >= 0) {
+			Host h = hosts.get(host[i]);
+			view_x = h.x;
+			view_y = h.y;
+		}
+		AlaskaAlbers.EPSG_3338.unproject(view_x, view_y, lonlat);
+		return new TickView(i, stage_name(stage[i]), female[i], host[i] >= 0, lonlat[0], lonlat[1], habitat_sample(i));
+	}
+
+	// object views of every live tick, for reporting and display snapshots
+	public List<TickView> views() {
+		List<TickView> views = new ArrayList<TickView>(live);
+		for (int i = 0; i < high_water; i++) {
+			if (stage[i] != DEAD)
+				views.add(view(i));
+		}
+		return views;
+	}
+
+	// replace the views in the context with the population as it is now, on the TickPopulationNonAgg schedule
+	// LAST_PRIORITY so the views are taken after the bulk step, the data set itself records after every action
+	@ScheduledMethod(start = 1, interval = 5, priority = ScheduleParameters.LAST_PRIORITY)
+	public void publish_views() {
+		Context context = ContextUtils.getContext(this);
+		if (context == null)
+			return;
+		context.removeAll(published);
+		published = views();
+		context.addAll(published);
+	}
+
+}
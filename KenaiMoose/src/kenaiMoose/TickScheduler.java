@@ -0,0 +1,326 @@
+package kenaiMoose;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import repast.simphony.engine.schedule.ScheduledMethod;
+
+public class TickScheduler {
+
+	/* Single scheduled driver for Tick agents, replacing per-agent counter polling in each Tick's step
+	 * 		day - lifecycle clock, advanced by 1 each step and by 275 for each skipped inactive period, so a
+	 * 		      Tick's lifecycle counter is simply day - stage_start_day
+	 * 		ticks - every live Tick, its registry slot is its id in the mortality groups
+	 * 		active - Ticks that need per step work, those attached to a Host or laying eggs
+	 * 		wheel - timing wheel of one-shot stage events (hatch, molt, senescence) keyed by the day they fire
+	 * 		groups - (suitability cell, life stage) group of every live Tick, for the grouped mortality draws
+	 * 		stale - Ticks born, changing stage or moving cell since the last draw, regrouped before the next one
+	 *
+	 * A Tick schedules its next stage event when it enters a stage, so a dormant egg costs nothing per step
+	 * beyond its share of the grouped mortality draw. Events are fired on the same day the old counter comparison would have passed.
+	 *
+	 * Two per-Tick phases, riding a Host and adult behaviors, are evaluated in parallel over fixed chunks of
+	 * Ticks on the common fork-join pool. Births, deaths, detachments and matings are recorded in one
+	 * TickChanges buffer per chunk and committed serially in chunk order once the phase is done. Regrouping
+	 * and the mortality draw run serially between the two phases.
+	 */
+
+	private static final int WHEEL_SIZE = 1024; // must exceed the longest stage length, see IxPacificus
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	private static final int CHUNK_SIZE = 4096; // Ticks per parallel task, fewer Ticks than this run serially
+
+	private final SplittableRandom random = RandomStreams.stream("TickScheduler"); // grouped mortality draws
+	protected int day = 0;
+	private int fired_day = 0; // last day whose events have been fired
+
+	private Tick[] ticks = new Tick[1024];
+	private int tick_count = 0;
+	private Tick[] active = new Tick[64];
+	private int active_count = 0;
+
+	private final MortalityGroups groups = new MortalityGroups();
+	private Tick[] stale = new Tick[64];
+	private int stale_count = 0;
+
+	private final Tick[][] wheel_ticks = new Tick[WHEEL_SIZE][];
+	private final int[][] wheel_ids = new int[WHEEL_SIZE][];
+	private final int[] wheel_counts = new int[WHEEL_SIZE];
+	
+	private TickChanges[] chunk_changes = new TickChanges[0];
+	private final List<Tick> pending_deaths = new ArrayList<Tick>(); // see queue_deaths()
+	
+	// work applied to one Tick during a parallel phase
+	private interface TickTask {
+		void run(Tick tick, TickChanges changes);
+	}
+
+	/* Registration */
+
+	// add a Tick that has lived lifecycle_counter days in its current stage and schedule its next stage event
+	public void register(Tick tick, int lifecycle_counter) {
+		if (tick.scheduler_slot >= 0)
+			return;
+		if (tick_count == ticks.length)
+			ticks = Arrays.copyOf(ticks, tick_count * 2);
+		ticks[tick_count] = tick;
+		tick.scheduler_slot = tick_count++;
+		tick.stage_start_day = day - lifecycle_counter;
+		schedule_stage_event(tick);
+		set_active(tick, tick.attached || tick.laying_eggs);
+		regroup(tick);
+	}
+
+	// remove a dead Tick, its pending stage event is dropped when it comes due
+	public void unregister(Tick tick) {
+		int slot = tick.scheduler_slot;
+		if (slot < 0)
+			return;
+		groups.remove(slot);
+		Tick moved = ticks[--tick_count];
+		ticks[slot] = moved;
+		moved.scheduler_slot = slot;
+		ticks[tick_count] = null;
+		if (slot != tick_count)
+			groups.rename(tick_count, slot);
+		tick.scheduler_slot = -1;
+		set_active(tick, false);
+	}
+
+	// queue detached Ticks to be removed together by commit_deaths(), used when a Host loses its whole burden
+	public void queue_deaths(List<Tick> dying) {
+		pending_deaths.addAll(dying);
+	}
+
+	// remove every queued Tick from the scheduler, the TickIndex and the Context, the Context in one removeAll()
+	public void commit_deaths() {
+		if (pending_deaths.isEmpty())
+			return;
+		for (Tick tick : pending_deaths) {
+			tick.index_remove();
+			unregister(tick);
+		}
+		Tick.context.removeAll(pending_deaths);
+		if (Log.enabled(Log.TICK, Log.DEBUG))
+			Log.debug(Log.TICK, pending_deaths.size() + " Ticks removed from context with their Hosts.");
+		pending_deaths.clear();
+	}
+
+	// Ticks that are attached or laying eggs are stepped individually
+	public void set_active(Tick tick, boolean is_active) {
+		if (is_active && tick.active_slot < 0 && tick.scheduler_slot >= 0) {
+			if (active_count == active.length)
+				active = Arrays.copyOf(active, active_count * 2);
+			active[active_count] = tick;
+			tick.active_slot = active_count++;
+		}
+		else if (!is_active && tick.active_slot >= 0) {
+			Tick moved = active[--active_count];
+			active[tick.active_slot] = moved;
+			moved.active_slot = tick.active_slot;
+			active[active_count] = null;
+			tick.active_slot = -1;
+		}
+	}
+
+	public int size() {
+		return tick_count;
+	}
+
+	public int lifecycle_counter(Tick tick) {
+		return day - tick.stage_start_day;
+	}
+
+	/* Stage events */
+
+	// called when a Tick enters a new stage, mirrors resetting lifecycle_counter to 0
+	public void start_stage(Tick tick) {
+		tick.stage_start_day = day;
+		schedule_stage_event(tick);
+		regroup(tick);
+	}
+
+	// Ticks used to increment the counter and compared it against the stage length on every step,
+	// so the stage ends on the first day the counter exceeds the length
+	private void schedule_stage_event(Tick tick) {
+		int length;
+		switch (tick.life_stage) {
+			case "egg":
+				length = Tick.EGG_LENGTH;
+				break;
+			case "larva":
+				length = Tick.LARVA_LENGTH;
+				break;
+			case "nymph":
+				length = Tick.NYMPH_LENGTH;
+				break;
+			case "adult":
+				length = Tick.ADULT_LENGTH;
+				break;
+			default:
+				length = -1; // invalid stage, end_stage() removes the agent on the next step
+		}
+		int due = Math.max(tick.stage_start_day + length + 1, day + 1);
+		if (due - day >= WHEEL_SIZE)
+			throw new IllegalStateException("Stage length of " + length + " exceeds the lifecycle timing wheel.");
+		int slot = due & WHEEL_MASK;
+		int count = wheel_counts[slot];
+		if (wheel_ticks[slot] == null) {
+			wheel_ticks[slot] = new Tick[16];
+			wheel_ids[slot] = new int[16];
+		}
+		else if (count == wheel_ticks[slot].length) {
+			wheel_ticks[slot] = Arrays.copyOf(wheel_ticks[slot], count * 2);
+			wheel_ids[slot] = Arrays.copyOf(wheel_ids[slot], count * 2);
+		}
+		tick.stage_event_id++;
+		wheel_ticks[slot][count] = tick;
+		wheel_ids[slot][count] = tick.stage_event_id;
+		wheel_counts[slot] = count + 1;
+	}
+
+	// fire every event due up to the current day, skipping Ticks that died or were rescheduled since
+	private void fire_events() {
+		while (fired_day < day) {
+			fired_day++;
+			int slot = fired_day & WHEEL_MASK;
+			int count = wheel_counts[slot];
+			if (count == 0)
+				continue;
+			Tick[] due_ticks = wheel_ticks[slot];
+			int[] due_ids = wheel_ids[slot];
+			// events scheduled while firing land in later slots, so the slot can be cleared afterwards
+			for (int i = 0; i < count; i++) {
+				Tick tick = due_ticks[i];
+				if (tick.scheduler_slot >= 0 && tick.stage_event_id == due_ids[i])
+					tick.end_stage();
+				due_ticks[i] = null;
+			}
+			wheel_counts[slot] = 0;
+		}
+	}
+
+	/* Scheduled methods */
+
+	@ScheduledMethod(start = 1, interval = 1)
+	public void step() {
+		day++;
+
+		// attached Ticks ride their Host, their position is read from the Host so the geometry is only moved
+		// when a display needs to draw them
+		Tick[] riding = Arrays.copyOf(active, active_count);
+		if (Host.display) {
+			for (Tick tick : riding) {
+				if (tick.attached)
+					tick.follow_host();
+			}
+		}
+		in_parallel(riding, (tick, changes) -> {
+			if (tick.attached)
+				tick.ride(changes);
+		});
+		// the Host has moved, Ticks that detached were regrouped where they dropped
+		for (Tick tick : riding) {
+			if (tick.attached)
+				regroup(tick);
+		}
+
+		// daily habitat mortality
+		habitat_mortality(1, "active 90 days");
+
+		fire_events();
+
+		// adult behaviors for Ticks that are attached or laying eggs
+		Tick[] acting = Arrays.copyOf(active, active_count);
+		in_parallel(acting, (tick, changes) -> tick.act(changes));
+	}
+	
+	// run a task over every Tick in a snapshot, one TickChanges per chunk, then commit the chunks in order
+	private void in_parallel(Tick[] snapshot, TickTask task) {
+		int chunks = (snapshot.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		if (chunk_changes.length < chunks) {
+			chunk_changes = Arrays.copyOf(chunk_changes, chunks);
+			for (int c = 0; c < chunks; c++) {
+				if (chunk_changes[c] == null)
+					chunk_changes[c] = new TickChanges();
+			}
+		}
+		IntStream range = IntStream.range(0, chunks);
+		if (chunks > 1)
+			range = range.parallel();
+		range.forEach(c -> {
+			TickChanges changes = chunk_changes[c];
+			int end = Math.min(snapshot.length, (c + 1) * CHUNK_SIZE);
+			for (int i = c * CHUNK_SIZE; i < end; i++)
+				task.run(snapshot[i], changes);
+		});
+		// most chunks of a quiet day record nothing
+		for (int c = 0; c < chunks; c++) {
+			if (!chunk_changes[c].isEmpty())
+				chunk_changes[c].commit();
+		}
+	}
+
+	// skip the simulation forward 275 days, stage events falling in the skipped days fire on the next step
+	@ScheduledMethod(start = 90, interval = 90)
+	public void skip_inactive_period() {
+		day += 275;
+		habitat_mortality(275, "275 day skip");
+		
+		// kill any adult females that didn't lay their eggs before winter
+		for (int i = active_count - 1; i >= 0; i--) {
+			if (i < active_count && active[i].laying_eggs)
+				active[i].die();
+		}
+	}
+	
+	/* Mortality */
+	
+	// queue a Tick whose cell or life stage may have changed, it is regrouped before the next mortality draw
+	// since a Tick registered in ContextBuilder has no geometry to sample until the run starts
+	public void regroup(Tick tick) {
+		if (tick.scheduler_slot < 0)
+			return;
+		if (stale_count == stale.length)
+			stale = Arrays.copyOf(stale, stale_count * 2);
+		stale[stale_count++] = tick;
+	}
+	
+	// deaths are one binomial draw per (cell, stage) group, see MortalityGroups
+	private void habitat_mortality(int days, String period) {
+		for (int k = 0; k < stale_count; k++) {
+			Tick tick = stale[k];
+			stale[k] = null;
+			if (tick.scheduler_slot >= 0)
+				groups.set(tick.scheduler_slot, tick.habitat_cell(), stage_code(tick.life_stage));
+		}
+		stale_count = 0;
+		
+		// registry slots shift as Ticks die, so every victim is looked up before any of them is removed
+		int[] victims = groups.draw_deaths(days, Tick::habitat_of_cell, random);
+		Tick[] dying = new Tick[victims.length];
+		for (int k = 0; k < victims.length; k++)
+			dying[k] = ticks[victims[k]];
+		for (Tick tick : dying) {
+			tick.die_from_habitat(period);
+		}
+	}
+	
+	private static int stage_code(String life_stage) {
+		switch (life_stage) {
+			case "egg":
+				return 0;
+			case "larva":
+				return 1;
+			case "nymph":
+				return 2;
+			case "adult":
+				return 3;
+			default:
+				return 4;
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+package kenaiMoose;
+
+public class TickView {
+
+	/* Read-only snapshot of one tick in a TickPopulation, created on demand for reporting
+	 * 		Getter names match the Tick reporters used by the TickNonAgg data set, so the TickPopulationNonAgg data
+	 * 		set records the same columns for the views TickPopulation.publish_views() puts in the context
+	 */
+
+	private final int id;
+	private final String life_stage;
+	private final boolean female;
+	private final boolean attached;
+	private final double lon;
+	private final double lat;
+	private final double habitat_sample;
+
+	public TickView(int id, String life_stage, boolean female, boolean attached, double lon, double lat, double habitat_sample) {
+		this.id = id;
+		this.life_stage = life_stage;
+		this.female = female;
+		this.attached = attached;
+		this.lon = lon;
+		this.lat = lat;
+		this.habitat_sample = habitat_sample;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getLifestate() {
+		return life_stage;
+	}
+
+	public boolean isFemale() {
+		return female;
+	}
+
+	public boolean isAttached() {
+		return attached;
+	}
+
+	public double getLong() {
+		return lon;
+	}
+
+	public double getLat() {
+		return lat;
+	}
+
+	public double habitat_sample() {
+		return habitat_sample;
+	}
+
+}
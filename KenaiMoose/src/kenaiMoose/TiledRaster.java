@@ -0,0 +1,239 @@
+package kenaiMoose;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TiledRaster {
+
+	/* Single band raster kept on disk as fixed-size square tiles and memory-mapped a tile at a time
+	 * 		cols, rows - dimensions of the raster in cells
+	 * 		cell_bytes - 1 for byte codes (LandscapeMask), 4 for float values (SuitabilityGrid)
+	 * 		hot - LRU of mapped tiles, at most cache_tiles of them, guarded by its own lock
+	 * 		last - per-thread memo of the last tile used, agents sample near where they sampled before
+	 *
+	 * Backs LandscapeMask and SuitabilityGrid when a layer is larger than in_heap_limit cells, so a landscape
+	 * doesn't have to fit in the heap. Tiles are TILE_SIZE x TILE_SIZE cells stored row-major, edge tiles are
+	 * padded to full size so a tile's offset is a multiplication. A file is written once by write() from rows
+	 * of the source raster and is read-only afterwards, so concurrent reads only share the LRU. Layer files are
+	 * named by the stamps of their sources (see tile_file()) and moved into place whole, so a file another run
+	 * or JVM has mapped is never truncated or rewritten under it.
+	 */
+
+	public static final int TILE_SHIFT = 8;
+	public static final int TILE_SIZE = 1 << TILE_SHIFT; // 256 cells, 64 KiB tiles for byte codes
+	private static final int TILE_MASK = TILE_SIZE - 1;
+	public static final File TILE_DIR = new File("./data/tiles");
+
+	private static final int MAGIC = 0x4b4d5452; // "KMTR"
+	private static final int HEADER = 64;
+
+	private static long in_heap_limit = 1L << 26; // cells, larger layers are tiled
+	private static int cache_tiles = 1024;
+
+	private final File file;
+	private final FileChannel channel;
+	private final int cols;
+	private final int rows;
+	private final int cell_bytes;
+	private final int tiles_x;
+	private final long tile_bytes;
+
+	private final LinkedHashMap<Integer, ByteBuffer> hot;
+	private final ThreadLocal<Memo> last = ThreadLocal.withInitial(Memo::new);
+
+	private static class Memo {
+		int tile = -1;
+		ByteBuffer data;
+	}
+
+	// supplies one row of the source raster at a time while a tile file is written
+	public interface RowSource {
+		void read(int row, float[] values);
+	}
+
+	private TiledRaster(File file, FileChannel channel, int cols, int rows, int cell_bytes) {
+		this.file = file;
+		this.channel = channel;
+		this.cols = cols;
+		this.rows = rows;
+		this.cell_bytes = cell_bytes;
+		tiles_x = (cols + TILE_MASK) >> TILE_SHIFT;
+		tile_bytes = (long) TILE_SIZE * TILE_SIZE * cell_bytes;
+		final int capacity = cache_tiles;
+		hot = new LinkedHashMap<Integer, ByteBuffer>(capacity * 2, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	// true when a layer of this many cells should be tiled rather than decoded into the heap
+	// a layer past the largest Java array is always tiled, whatever the limit
+	public static boolean is_large(long cells) {
+		return cells > Math.min(in_heap_limit, Integer.MAX_VALUE - 8);
+	}
+
+	public static void setInHeapLimit(long cells) {
+		in_heap_limit = cells;
+	}
+
+	public static void setCacheTiles(int tiles) {
+		cache_tiles = tiles;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	// tile file for a layer of source files, named by their paths, sizes and modification times so that a file
+	// is only reused for the sources it was written from
+	public static File tile_file(String layer, File... sources) {
+		long stamp = 17;
+		for (File source : sources) {
+			stamp = stamp * 1000003 ^ source.getAbsolutePath().hashCode();
+			stamp = stamp * 1000003 ^ source.length();
+			stamp = stamp * 1000003 ^ source.lastModified();
+		}
+		return new File(TILE_DIR, layer + "-" + Long.toHexString(stamp) + ".tiles");
+	}
+
+	/* Reading */
+
+	public static TiledRaster open(File file) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		if (header.getInt() != MAGIC || header.getInt() != TILE_SIZE) {
+			channel.close();
+			throw new IOException(file + " is not a tile file with " + TILE_SIZE + " cell tiles");
+		}
+		int cell_bytes = header.getInt();
+		int cols = header.getInt();
+		int rows = header.getInt();
+		return new TiledRaster(file, channel, cols, rows, cell_bytes);
+	}
+
+	// the tile file when it already holds a raster of this shape, otherwise the raster written to it
+	public static TiledRaster open_or_write(File file, int cols, int rows, int cell_bytes, RowSource source)
+			throws IOException {
+		if (file.isFile()) {
+			try {
+				TiledRaster tiles = open(file);
+				if (tiles.cols == cols && tiles.rows == rows && tiles.cell_bytes == cell_bytes)
+					return tiles;
+				tiles.channel.close();
+			} catch (IOException e) {
+				Log.warn(Log.SETUP, "Replacing unreadable tile file " + file + ": " + e.getMessage());
+			}
+		}
+		return write(file, cols, rows, cell_bytes, source);
+	}
+
+	// byte code of a cell, the column and row must be inside the raster
+	public int get_code(int col, int row) {
+		return tile(col, row).get(offset(col, row));
+	}
+
+	// float value of a cell, the column and row must be inside the raster
+	public float get_value(int col, int row) {
+		return tile(col, row).getFloat(offset(col, row));
+	}
+
+	private int offset(int col, int row) {
+		return (((row & TILE_MASK) << TILE_SHIFT) | (col & TILE_MASK)) * cell_bytes;
+	}
+
+	private ByteBuffer tile(int col, int row) {
+		int tile = (row >> TILE_SHIFT) * tiles_x + (col >> TILE_SHIFT);
+		Memo memo = last.get();
+		if (memo.tile != tile) {
+			memo.data = hot_tile(tile);
+			memo.tile = tile;
+		}
+		return memo.data;
+	}
+
+	// mapped tile from the LRU, mapping it on a miss - absolute gets on the shared buffer are thread safe
+	private ByteBuffer hot_tile(int tile) {
+		synchronized (hot) {
+			ByteBuffer data = hot.get(tile);
+			if (data == null) {
+				try {
+					data = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + tile * tile_bytes, tile_bytes)
+							.order(ByteOrder.LITTLE_ENDIAN);
+				} catch (IOException e) {
+					throw new IllegalStateException("Unable to map tile " + tile + " of " + file, e);
+				}
+				hot.put(tile, data);
+			}
+			return data;
+		}
+	}
+
+	/* Writing */
+
+	// write a raster to a tile file a row at a time, mapping one band of tiles at once
+	// written to a temporary file and moved into place, so a run still mapping a replaced file keeps reading it
+	public static TiledRaster write(File file, int cols, int rows, int cell_bytes, RowSource source) throws IOException {
+		if (cell_bytes != 1 && cell_bytes != 4)
+			throw new IllegalArgumentException("Tiles hold 1 byte codes or 4 byte floats, not " + cell_bytes + " bytes.");
+		File dir = file.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		int tiles_x = (cols + TILE_MASK) >> TILE_SHIFT;
+		int tiles_y = (rows + TILE_MASK) >> TILE_SHIFT;
+		long tile_bytes = (long) TILE_SIZE * TILE_SIZE * cell_bytes;
+		long band_bytes = tiles_x * tile_bytes;
+
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+			out.setLength(HEADER + tiles_y * band_bytes);
+			FileChannel channel = out.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(TILE_SIZE).putInt(cell_bytes).putInt(cols).putInt(rows);
+			header.clear();
+			channel.write(header, 0);
+
+			float[] values = new float[cols];
+			for (int band = 0; band < tiles_y; band++) {
+				MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + band * band_bytes, band_bytes);
+				data.order(ByteOrder.LITTLE_ENDIAN);
+				int last_row = Math.min(rows, (band + 1) * TILE_SIZE);
+				for (int row = band * TILE_SIZE; row < last_row; row++) {
+					source.read(row, values);
+					for (int col = 0; col < cols; col++) {
+						int offset = (int) ((col >> TILE_SHIFT) * tile_bytes)
+								+ (((row & TILE_MASK) << TILE_SHIFT) | (col & TILE_MASK)) * cell_bytes;
+						if (cell_bytes == 1)
+							data.put(offset, (byte) values[col]);
+						else
+							data.putFloat(offset, values[col]);
+					}
+				}
+				data.force();
+			}
+		} catch (IOException | RuntimeException e) {
+			temp.delete();
+			throw e;
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return open(file);
+	}
+
+}